@@ -24,6 +24,7 @@ import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.NotYetConnectedException;
 import java.nio.channels.SelectionKey;
@@ -147,6 +148,7 @@ public class PyroClient {
         // prevent a call to setTimeout from immediately causing a timeout
         this.lastEventTime = System.currentTimeMillis();
         this.timeout = ms;
+        this.scheduleTimeoutCheck();
     }
 
     public void setLinger(boolean enabled, int seconds) throws IOException {
@@ -223,6 +225,7 @@ public class PyroClient {
         }
 
         this.outbound.append(data);
+        this.updateWritable();
 
         if (this.doEagerWrite) {
             try {
@@ -294,6 +297,66 @@ public class PyroClient {
         return total;
     }
 
+    private int lowWatermark = 0;
+
+    private int highWatermark = Integer.MAX_VALUE;
+
+    private boolean writable = true;
+
+    /**
+     * Sets the outbound byte counts at which the client stops and starts
+     * being writable again. Listeners are told through writabilityChanged(),
+     * so they can hold back data while the socket can't keep up.
+     */
+
+    public void setWriteWatermarks(int low, int high) {
+        this.selector.checkThread();
+
+        if (low < 0 || low > high)
+            throw new IllegalArgumentException("low=" + low + ", high=" + high);
+
+        this.lowWatermark = low;
+        this.highWatermark = high;
+        this.updateWritable();
+    }
+
+    /**
+     * Returns false from the moment the outbound queue grows above the high
+     * watermark, until it drained to the low watermark.
+     */
+
+    public boolean isWritable() {
+        this.selector.checkThread();
+
+        return this.writable;
+    }
+
+    /**
+     * Returns the number of bytes left in the outbound queue.
+     */
+
+    public int getOutboundByteCount() {
+        this.selector.checkThread();
+
+        return this.outbound.getByteCount();
+    }
+
+    private void updateWritable() {
+        int pending = this.outbound.getByteCount();
+
+        boolean changed;
+        if (this.writable)
+            changed = pending > this.highWatermark;
+        else
+            changed = pending <= this.lowWatermark;
+        if (!changed)
+            return;
+
+        this.writable = !this.writable;
+        for (PyroClientListener listener: this.listeners)
+            listener.writabilityChanged(this, this.writable);
+    }
+
     /**
      * Returns whether there are bytes left in the outbound queue.
      */
@@ -387,12 +450,53 @@ public class PyroClient {
 
     private long lastEventTime;
 
+    private PyroTimerWheel.Timeout timeoutCheck;
+
     boolean didTimeout(long now) {
         if (this.timeout == 0)
             return false; // never timeout
         return (now - this.lastEventTime) > this.timeout;
     }
 
+    /**
+     * Events only move lastEventTime, the check looks at it when it comes up
+     * and schedules itself again while the client is active
+     */
+
+    private void scheduleTimeoutCheck() {
+        if (this.timeoutCheck != null)
+            this.timeoutCheck.cancel();
+        this.timeoutCheck = null;
+
+        if (this.timeout == 0)
+            return;
+
+        this.timeoutCheck = this.selector.timers.schedule(new Runnable() {
+            @Override
+            public void run() {
+                PyroClient.this.checkTimeout();
+            }
+        }, this.lastEventTime + this.timeout + 1);
+    }
+
+    private void checkTimeout() {
+        this.timeoutCheck = null;
+
+        if (!this.key.channel().isOpen())
+            return;
+
+        if (this.didTimeout(System.currentTimeMillis())) {
+            try {
+                throw new SocketTimeoutException(
+                        "PyroNet detected NIO timeout");
+            } catch (SocketTimeoutException exc) {
+                this.onConnectionError(exc);
+            }
+        } else {
+            this.scheduleTimeoutCheck();
+        }
+    }
+
     private void onReadyToConnect(long now) throws IOException {
         this.selector.checkThread();
         this.lastEventTime = now;
@@ -429,26 +533,17 @@ public class PyroClient {
 
         int sent = 0;
 
-        // copy outbound bytes into network buffer
-        ByteBuffer buffer = this.selector.networkBuffer;
-        buffer.clear();
-        this.outbound.get(buffer);
-        buffer.flip();
-
-        // write to channel
-        if (buffer.hasRemaining()) {
+        // gathering write straight from the queued buffers
+        if (this.outbound.hasData()) {
             SocketChannel channel = (SocketChannel) key.channel();
-            sent = channel.write(buffer);
-        }
-
-        if (sent > 0) {
-            this.outbound.discard(sent);
+            sent = this.outbound.write(channel);
         }
 
         for (PyroClientListener listener: this.listeners)
             listener.sentData(this, sent);
 
         this.adjustWriteOp();
+        this.updateWritable();
 
         if (this.doShutdown && !this.outbound.hasData()) {
             this.dropConnection();
@@ -21,7 +21,6 @@ package jawnae.pyronet;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectableChannel;
@@ -29,7 +28,9 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -48,6 +49,10 @@ public class PyroSelector {
 
     final PyroSelectorListener listener;
 
+    final PyroTimerWheel timers = new PyroTimerWheel(10, 512);
+
+    private final List<Runnable> expiredTimers = new ArrayList<Runnable>();
+
     public PyroSelector() {
         this(null);
     }
@@ -150,8 +155,26 @@ public class PyroSelector {
         }
     }
 
+    /**
+     * Blocks until there is I/O, a task was scheduled or the next timer is
+     * due
+     */
+
     public void select() {
-        this.select(10);
+        this.checkThread();
+
+        this.executePendingTasks();
+
+        long timeout = 0;
+        long deadline = this.timers.nextDeadline();
+        if (deadline != Long.MAX_VALUE) {
+            timeout = Math.max(1, deadline - System.currentTimeMillis());
+        }
+        this.performNioSelect(timeout);
+
+        final long now = System.currentTimeMillis();
+        this.handleSelectedKeys(now);
+        this.handleTimers(now);
     }
 
     public void select(long eventTimeout) {
@@ -164,7 +187,7 @@ public class PyroSelector {
 
         final long now = System.currentTimeMillis();
         this.handleSelectedKeys(now);
-        this.handleSocketTimeouts(now);
+        this.handleTimers(now);
     }
 
     private void executePendingTasks() {
@@ -226,21 +249,27 @@ public class PyroSelector {
         }
     }
 
-    private final void handleSocketTimeouts(long now) {
-        for (SelectionKey key: nioSelector.keys()) {
-            if (key.channel() instanceof SocketChannel) {
-                PyroClient client = (PyroClient) key.attachment();
+    private final void handleTimers(long now) {
+        this.timers.expire(now, this.expiredTimers);
+        if (this.expiredTimers.isEmpty())
+            return;
 
-                if (client.didTimeout(now)) {
-                    try {
-                        throw new SocketTimeoutException(
-                                "PyroNet detected NIO timeout");
-                    } catch (SocketTimeoutException exc) {
-                        client.onConnectionError(exc);
-                    }
-                }
+        for (int i = 0; i < this.expiredTimers.size(); i++) {
+            Runnable task = this.expiredTimers.get(i);
+
+            if (this.listener != null)
+                this.listener.executingTask(task);
+
+            try {
+                task.run();
+            } catch (Throwable cause) {
+                if (this.listener != null)
+                    this.listener.taskCrashed(task, cause);
+                else
+                    cause.printStackTrace();
             }
         }
+        this.expiredTimers.clear();
     }
 
     public void spawnNetworkThread(final String name) {
@@ -297,6 +326,28 @@ public class PyroSelector {
         wakeup();
     }
 
+    /**
+     * Runs the task on the network thread after the delay, the returned
+     * timeout can cancel it from any thread
+     */
+
+    public PyroTimerWheel.Timeout scheduleTask(Runnable task, long delayMillis) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+
+        final PyroTimerWheel.Timeout timeout = new PyroTimerWheel.Timeout(
+                System.currentTimeMillis() + delayMillis, task);
+        this.scheduleTask(new Runnable() {
+            @Override
+            public void run() {
+                if (!timeout.isCancelled())
+                    PyroSelector.this.timers.schedule(timeout);
+            }
+        });
+        return timeout;
+    }
+
     public void wakeup() {
         this.nioSelector.wakeup();
     }
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2008, https://code.google.com/p/pyronet/
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jawnae.pyronet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hashed timer wheel of a PyroSelector, only touched by its network thread.
+ * Timeouts are hashed by their deadline tick and keep the absolute deadline,
+ * so a slot can hold timeouts of later rounds. Cancelling only marks the
+ * timeout, it is dropped when its slot comes up. Non-empty slots are kept in
+ * a bitmap with the earliest deadline of each, so finding the next deadline
+ * doesn't look at the timeouts themselves.
+ */
+
+public final class PyroTimerWheel {
+    public static final class Timeout {
+        final long deadline;
+
+        final Runnable task;
+
+        private volatile boolean cancelled;
+
+        Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /**
+         * Keeps the task from running, may be called from any thread
+         */
+
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return this.cancelled;
+        }
+    }
+
+    private final long tickMillis;
+
+    private final List<List<Timeout>> slots;
+
+    private final int mask;
+
+    private final long[] occupied;
+
+    private final long[] slotDeadlines;
+
+    private long processedTick = -1;
+
+    private long nextDeadline = Long.MAX_VALUE;
+
+    PyroTimerWheel(long tickMillis, int slotCount) {
+        if (Integer.bitCount(slotCount) != 1)
+            throw new IllegalArgumentException("slot count must be a power of two");
+
+        this.tickMillis = tickMillis;
+        this.mask = slotCount - 1;
+        this.slots = new ArrayList<List<Timeout>>(slotCount);
+        for (int i = 0; i < slotCount; i++)
+            this.slots.add(new ArrayList<Timeout>());
+        this.occupied = new long[(slotCount + 63) >>> 6];
+        this.slotDeadlines = new long[slotCount];
+        Arrays.fill(this.slotDeadlines, Long.MAX_VALUE);
+    }
+
+    Timeout schedule(Runnable task, long deadline) {
+        Timeout timeout = new Timeout(deadline, task);
+        this.schedule(timeout);
+        return timeout;
+    }
+
+    void schedule(Timeout timeout) {
+        long deadline = timeout.deadline;
+        long tick = deadline / this.tickMillis;
+        if (tick < this.processedTick)
+            tick = this.processedTick;
+        int index = (int) (tick & this.mask);
+        this.slots.get(index).add(timeout);
+        this.occupied[index >>> 6] |= 1L << index;
+        if (deadline < this.slotDeadlines[index])
+            this.slotDeadlines[index] = deadline;
+
+        if (deadline < this.nextDeadline)
+            this.nextDeadline = deadline;
+    }
+
+    /**
+     * Returns the earliest deadline, or Long.MAX_VALUE when nothing is
+     * scheduled. Cancelled timeouts may make it early.
+     */
+
+    long nextDeadline() {
+        return this.nextDeadline;
+    }
+
+    /**
+     * Moves the tasks of all timeouts due at <code>now</code> to
+     * <code>expired</code>. Slots are only walked once the earliest deadline
+     * has passed.
+     */
+
+    void expire(long now, List<Runnable> expired) {
+        if (now < this.nextDeadline)
+            return;
+
+        long currentTick = now / this.tickMillis;
+        long fromTick = this.processedTick;
+        if (fromTick < 0 || currentTick - fromTick > this.mask)
+            fromTick = currentTick - this.mask;
+
+        for (long tick = fromTick; tick <= currentTick; tick++) {
+            int index = (int) (tick & this.mask);
+            List<Timeout> slot = this.slots.get(index);
+            int kept = 0;
+            long slotDeadline = Long.MAX_VALUE;
+            for (int i = 0; i < slot.size(); i++) {
+                Timeout timeout = slot.get(i);
+                if (timeout.cancelled)
+                    continue;
+                if (timeout.deadline <= now) {
+                    expired.add(timeout.task);
+                } else {
+                    slot.set(kept++, timeout);
+                    if (timeout.deadline < slotDeadline)
+                        slotDeadline = timeout.deadline;
+                }
+            }
+            for (int i = slot.size() - 1; i >= kept; i--)
+                slot.remove(i);
+            this.slotDeadlines[index] = slotDeadline;
+            if (kept == 0)
+                this.occupied[index >>> 6] &= ~(1L << index);
+        }
+        this.processedTick = currentTick;
+        this.nextDeadline = this.findNextDeadline(currentTick);
+    }
+
+    /**
+     * Earliest deadline after the walk of <code>currentTick</code>, from the
+     * first non-empty slot on. A slot whose earliest timeout is of a later
+     * round gives the start of its tick, it is walked then and looked at
+     * again. The slot of <code>currentTick</code> itself only counts with a
+     * timeout of this round, otherwise it comes up a round later.
+     */
+
+    private long findNextDeadline(long currentTick) {
+        int start = (int) (currentTick & this.mask);
+        long slotDeadline = this.slotDeadlines[start];
+        if (slotDeadline < (currentTick + 1) * this.tickMillis)
+            return slotDeadline;
+
+        int index = start < this.mask ? this.nextOccupied(start + 1) : -1;
+        if (index < 0)
+            index = this.nextOccupied(0);
+        if (index < 0)
+            return Long.MAX_VALUE;
+
+        int offset = (index - start) & this.mask;
+        long tick = currentTick + (offset != 0 ? offset : this.mask + 1);
+        slotDeadline = this.slotDeadlines[index];
+        if (slotDeadline < (tick + 1) * this.tickMillis)
+            return slotDeadline;
+        return tick * this.tickMillis;
+    }
+
+    /**
+     * Index of the first non-empty slot from <code>from</code> to the last
+     * one, or -1.
+     */
+
+    private int nextOccupied(int from) {
+        int word = from >>> 6;
+        long bits = this.occupied[word] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                return index <= this.mask ? index : -1;
+            }
+            if (++word == this.occupied.length)
+                return -1;
+            bits = this.occupied[word];
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2008, https://code.google.com/p/pyronet/
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package jawnae.pyronet.addon;
+
+import java.nio.channels.SocketChannel;
+
+import jawnae.pyronet.PyroSelector;
+
+/**
+ * A fixed set of selectors, each running its own network thread. Clients
+ * are spread over them round robin, or by a key so that related clients end
+ * up on the same thread.
+ */
+
+public class PyroSelectorGroup implements PyroSelectorProvider {
+    private final PyroSelector[] selectors;
+
+    private final PyroRoundrobinSelectorProvider roundrobin;
+
+    public PyroSelectorGroup(String name, int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads=" + threads);
+
+        this.selectors = new PyroSelector[threads];
+        for (int i = 0; i < threads; i++) {
+            this.selectors[i] = new PyroSelector();
+            this.selectors[i].spawnNetworkThread(threads == 1 ? name : name
+                    + " " + (i + 1));
+        }
+        this.roundrobin = new PyroRoundrobinSelectorProvider(this.selectors);
+    }
+
+    /**
+     * Returns the selector for the given key, the same key always gets the
+     * same selector
+     */
+
+    public PyroSelector selectorFor(int key) {
+        return this.selectors[(key & 0x7fffffff) % this.selectors.length];
+    }
+
+    public int size() {
+        return this.selectors.length;
+    }
+
+    @Override
+    public PyroSelector provideFor(SocketChannel channel) {
+        return this.roundrobin.provideFor(channel);
+    }
+}
@@ -52,4 +52,8 @@ public class PyroClientAdapter implements PyroClientListener {
     public void sentData(PyroClient client, int bytes) {
         //
     }
+
+    public void writabilityChanged(PyroClient client, boolean writable) {
+        //
+    }
 }
@@ -37,4 +37,11 @@ public interface PyroClientListener {
     public void receivedData(PyroClient client, ByteBuffer data);
 
     public void sentData(PyroClient client, int bytes);
+
+    /**
+     * Called when the outbound queue crosses the watermarks set with
+     * PyroClient.setWriteWatermarks()
+     */
+
+    public void writabilityChanged(PyroClient client, boolean writable);
 }
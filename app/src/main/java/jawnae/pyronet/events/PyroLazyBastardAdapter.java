@@ -95,6 +95,10 @@ public class PyroLazyBastardAdapter implements PyroSelectorListener,
         //
     }
 
+    public void writabilityChanged(PyroClient client, boolean writable) {
+        //
+    }
+
     @Override
     public void serverBindFailed(IOException cause) {
         System.out.println(this.getClass().getSimpleName()
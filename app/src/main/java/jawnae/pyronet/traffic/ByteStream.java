@@ -18,20 +18,29 @@
 
 package jawnae.pyronet.traffic;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.channels.GatheringByteChannel;
 
 import jawnae.pyronet.PyroException;
 
 public class ByteStream {
-    private final List<ByteBuffer> queue;
+    // most gathering writes are capped by the OS at IOV_MAX (1024) buffers
+    private static final int MAX_GATHER = 64;
+
+    // ring of queued buffers, its capacity is always a power of two
+    private ByteBuffer[] queue;
+
+    private int head;
+
+    private int size;
+
+    private int byteCount;
+
+    private ByteBuffer[] gather;
 
     public ByteStream() {
-        // the queue is expected to be relatively small, and iterated often.
-        // hence removing the first element will be fast, even when using an
-        // ArrayList
-        this.queue = new ArrayList<ByteBuffer>();
+        this.queue = new ByteBuffer[16];
     }
 
     /**
@@ -42,7 +51,18 @@ public class ByteStream {
     public void append(ByteBuffer buf) {
         if (buf == null)
             throw new NullPointerException();
-        this.queue.add(buf);
+
+        if (this.size == this.queue.length) {
+            ByteBuffer[] grown = new ByteBuffer[this.queue.length * 2];
+            for (int i = 0; i < this.size; i++)
+                grown[i] = this.queue[(this.head + i) & (this.queue.length - 1)];
+            this.queue = grown;
+            this.head = 0;
+        }
+
+        this.queue[(this.head + this.size) & (this.queue.length - 1)] = buf;
+        this.size++;
+        this.byteCount += buf.remaining();
     }
 
     /**
@@ -50,20 +70,11 @@ public class ByteStream {
      */
 
     public boolean hasData() {
-        int size = this.queue.size();
-        for (int i = 0; i < size; i++)
-            if (this.queue.get(i).hasRemaining())
-                return true;
-        return false;
+        return this.byteCount > 0;
     }
 
     public int getByteCount() {
-        int size = this.queue.size();
-
-        int sum = 0;
-        for (int i = 0; i < size; i++)
-            sum += this.queue.get(i).remaining();
-        return sum;
+        return this.byteCount;
     }
 
     /**
@@ -76,9 +87,9 @@ public class ByteStream {
             throw new NullPointerException();
         }
 
-        for (ByteBuffer data: this.queue) {
+        for (int i = 0; i < this.size; i++) {
             // data pos/lim must not be modified
-            data = data.slice();
+            ByteBuffer data = this.queue[(this.head + i) & (this.queue.length - 1)].slice();
 
             if (data.remaining() > dst.remaining()) {
                 data.limit(dst.remaining());
@@ -104,20 +115,22 @@ public class ByteStream {
     public void discard(int count) {
         int original = count;
 
-        while (count > 0) {
+        while (count > 0 && this.size > 0) {
             // peek at the first buffer
-            ByteBuffer data = this.queue.get(0);
+            ByteBuffer data = this.queue[this.head];
 
             if (count < data.remaining()) {
                 // discarding less bytes than remaining in buffer
                 data.position(data.position() + count);
+                this.byteCount -= count;
                 count = 0;
                 break;
             }
 
             // discard the first buffer
-            this.queue.remove(0);
             count -= data.remaining();
+            this.byteCount -= data.remaining();
+            this.removeFirst();
         }
 
         if (count != 0) {
@@ -129,13 +142,55 @@ public class ByteStream {
     }
 
     public byte read() {
-        ByteBuffer data = this.queue.get(0);
+        ByteBuffer data = this.queue[this.head];
+        while (!data.hasRemaining()) {
+            this.removeFirst();
+            data = this.queue[this.head];
+        }
         byte result = data.get();
+        this.byteCount--;
         if (!data.hasRemaining()) {
             // discard the first buffer
-            this.queue.remove(0);
+            this.removeFirst();
         }
         return result;
     }
 
+    /**
+     * Writes the queued buffers to the channel with a single gathering write,
+     * without copying them. Fully written buffers are dropped from the stream.
+     * Returns the number of bytes written.
+     */
+
+    public int write(GatheringByteChannel channel) throws IOException {
+        int count = Math.min(this.size, MAX_GATHER);
+        if (count == 0)
+            return 0;
+
+        if (this.gather == null || this.gather.length < count)
+            this.gather = new ByteBuffer[Math.max(count, 16)];
+        for (int i = 0; i < count; i++)
+            this.gather[i] = this.queue[(this.head + i) & (this.queue.length - 1)];
+
+        int written;
+        try {
+            written = (int) channel.write(this.gather, 0, count);
+        } finally {
+            for (int i = 0; i < count; i++)
+                this.gather[i] = null;
+        }
+
+        // the channel moved the positions of the written buffers
+        this.byteCount -= written;
+        while (this.size > 0 && !this.queue[this.head].hasRemaining())
+            this.removeFirst();
+
+        return written;
+    }
+
+    private void removeFirst() {
+        this.queue[this.head] = null;
+        this.head = (this.head + 1) & (this.queue.length - 1);
+        this.size--;
+    }
 }
@@ -8,7 +8,6 @@
 
 package org.telegram.TL;
 
-import org.telegram.messenger.ConnectionsManager;
 import org.telegram.messenger.SerializedData;
 
 import java.util.ArrayList;
@@ -7541,7 +7540,7 @@ public class TLRPC {
                 message.seqno = stream.readInt32();
                 message.bytes = stream.readInt32();
                 int constructor = stream.readInt32();
-                TLObject request = ConnectionsManager.Instance.getRequestWithMessageId(message.msg_id);
+                TLObject request = TLClassStore.Instance().getRequestWithMessageId(message.msg_id);
                 message.body = TLClassStore.Instance().TLdeserialize(stream, constructor, request);
                 messages.add(message);
             }
@@ -7568,7 +7567,7 @@ public class TLRPC {
 
         public void readParams(SerializedData stream) {
             req_msg_id = stream.readInt64();
-            TLObject request = ConnectionsManager.Instance.getRequestWithMessageId(req_msg_id);
+            TLObject request = TLClassStore.Instance().getRequestWithMessageId(req_msg_id);
             result = TLClassStore.Instance().TLdeserialize(stream, stream.readInt32(), request);
         }
 
@@ -8,7 +8,10 @@
 
 package org.telegram.messenger;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.util.Log;
@@ -19,34 +22,35 @@ import org.telegram.TL.TLRPC;
 import org.telegram.ui.ApplicationLoader;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Scanner;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.TcpConnectionDelegate {
-
-    public static boolean DEBUG_VERSION = false;
+public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.TcpConnectionDelegate, TLClassStore.RequestResolver {
 
     private HashMap<Integer, Datacenter> datacenters = new HashMap<Integer, Datacenter>();
-    private HashMap<Long, ArrayList<Long>> processedMessageIdsSet = new HashMap<Long, ArrayList<Long>>();
+    private static final int PROCESSED_MESSAGE_IDS_LIMIT = 1224;
+    private HashMap<Long, MessageIdWindow> processedMessageIdsSet = new HashMap<Long, MessageIdWindow>();
     private HashMap<Long, Integer> nextSeqNoInSession = new HashMap<Long, Integer>();
     private ArrayList<Long> sessionsToDestroy = new ArrayList<Long>();
     private ArrayList<Long> destroyingSessions = new ArrayList<Long>();
     private HashMap<Integer, ArrayList<Long>> quickAckIdToRequestIds = new HashMap<Integer, ArrayList<Long>>();
     private HashMap<Long, ArrayList<Long>> messagesIdsForConfirmation = new HashMap<Long, ArrayList<Long>>();
+    private HashMap<Long, TcpConnection> confirmationConnections = new HashMap<Long, TcpConnection>();
+    private HashSet<Long> confirmationFlushScheduled = new HashSet<Long>();
     private HashMap<Long, ArrayList<Long>> processedSessionChanges = new HashMap<Long, ArrayList<Long>>();
-    private HashMap<Long, Integer> pingIdToDate = new HashMap<Long, Integer>();
-    private ConcurrentHashMap<Integer, ArrayList<Long>> requestsByGuids = new ConcurrentHashMap<Integer, ArrayList<Long>>(100, 1.0f, 2);
+    private HashMap<Long, Long> pingIdToDate = new HashMap<Long, Long>();
+    private ConcurrentHashMap<Integer, HashSet<Long>> requestsByGuids = new ConcurrentHashMap<Integer, HashSet<Long>>(100, 1.0f, 2);
     private ConcurrentHashMap<Long, Integer> requestsByClass = new ConcurrentHashMap<Long, Integer>(100, 1.0f, 2);
     public volatile int connectionState = 2;
 
-    private ArrayList<RPCRequest> requestQueue = new ArrayList<RPCRequest>();
-    private ArrayList<RPCRequest> runningRequests = new ArrayList<RPCRequest>();
+    private RequestRegistry requests = new RequestRegistry();
     private ArrayList<Action> actionQueue = new ArrayList<Action>();
 
     private TLRPC.TL_auth_exportedAuthorization movingAuthorization;
@@ -67,11 +71,30 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
     private Runnable pingRunnable;
     private long lastPingTime = System.currentTimeMillis();
 
+    private final byte[] sendMessageKeyFull = new byte[20];
+    private final MessageKeyData sendKeyData = new MessageKeyData();
+    private final byte[] receiveMessageKey = new byte[16];
+    private final MessageKeyData receiveKeyData = new MessageKeyData();
+
     public ConnectionsManager() {
         lastOutgoingMessageId = 0;
         movingToDatacenterId = DEFAULT_DATACENTER_ID;
+        TLClassStore.Instance().setRequestResolver(this);
         loadSession();
 
+        try {
+            Utilities.applicationContext.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    if (isNetworkOnline()) {
+                        ReconnectPolicy.networkAvailable();
+                    }
+                }
+            }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
         Timer serviceTimer = new Timer();
         serviceTimer.schedule(new TimerTask() {
             @Override
@@ -81,18 +104,22 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                     public void run() {
                         if (ApplicationLoader.lastPauseTime != 0 && ApplicationLoader.lastPauseTime < System.currentTimeMillis() - 60000) {
                             if (!paused) {
-                                if (DEBUG_VERSION) {
+                                if (BuildVars.DEBUG_VERSION) {
                                     Log.e("tmessages", "pausing network and timers");
                                 }
                                 for (Datacenter datacenter : datacenters.values()) {
                                     if (datacenter.connection != null) {
                                         datacenter.connection.suspendConnection(true);
                                     }
-                                    if (datacenter.uploadConnection != null) {
-                                        datacenter.uploadConnection.suspendConnection(true);
+                                    for (TcpConnection connection : datacenter.uploadConnections) {
+                                        if (connection != null) {
+                                            connection.suspendConnection(true);
+                                        }
                                     }
-                                    if (datacenter.downloadConnection != null) {
-                                        datacenter.downloadConnection.suspendConnection(true);
+                                    for (TcpConnection connection : datacenter.downloadConnections) {
+                                        if (connection != null) {
+                                            connection.suspendConnection(true);
+                                        }
                                     }
                                 }
                             }
@@ -106,7 +133,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                         }
                         if (paused) {
                             paused = false;
-                            if (DEBUG_VERSION) {
+                            if (BuildVars.DEBUG_VERSION) {
                                 Log.e("tmessages", "resume network and timers");
                             }
                         }
@@ -151,10 +178,10 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         Utilities.stageQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                File configFile = new File(Utilities.applicationContext.getFilesDir(), "config.dat");
-                if (configFile.exists()) {
+                byte[] sessionData = sessionStore().read();
+                if (sessionData != null) {
                     try {
-                        SerializedData data = new SerializedData(configFile);
+                        SerializedData data = new SerializedData(sessionData);
                         int datacenterSetId = data.readInt32();
                         int version = data.readInt32();
 
@@ -204,57 +231,77 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                     saveSession();
                 }
                 movingToDatacenterId = DEFAULT_DATACENTER_ID;
+                handshakeAllDatacenters();
             }
         });
     }
 
+    public static int saveSessionDelay = 1000;
+    private SessionStore sessionStore;
+    private boolean saveSessionScheduled;
+
+    private SessionStore sessionStore() {
+        if (sessionStore == null) {
+            sessionStore = new SessionStore(new File(Utilities.applicationContext.getFilesDir(), "config.dat"));
+        }
+        return sessionStore;
+    }
+
+    /**
+     * Marks the session as changed. Changes within saveSessionDelay are written together, the file
+     * itself is written off the stage queue.
+     */
     void saveSession() {
         Utilities.stageQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                SerializedData data = new SerializedData();
-
-                data.writeInt32(useDifferentBackend);
-                data.writeInt32(SESSION_VERSION);
-                Datacenter currentDatacenter = datacenterWithId(currentDatacenterId);
-                if (currentDatacenter != null) {
-                    ArrayList<Long> sessions = new ArrayList<Long>();
-                    if (currentDatacenter.authSessionId != 0) {
-                        sessions.add(currentDatacenter.authSessionId);
-                    }
-                    data.writeInt32(sessions.size());
-                    for (long session : sessions) {
-                        data.writeInt64(session);
-                    }
-                    data.writeInt32(timeDifference);
-                    data.writeInt32(datacenters.size());
-                    for (Datacenter datacenter : datacenters.values()) {
-                        datacenter.SerializeToStream(data);
-                    }
-                    data.writeInt32(currentDatacenterId);
-                } else {
-                    data.writeInt32(0);
+                if (saveSessionScheduled) {
+                    return;
                 }
-                try {
-                    File configFile = new File(Utilities.applicationContext.getFilesDir(), "config.dat");
-                    if (!configFile.exists()) {
-                        configFile.createNewFile();
+                saveSessionScheduled = true;
+                Utilities.stageQueue.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        saveSessionScheduled = false;
+                        writeSession();
                     }
-                    FileOutputStream stream = new FileOutputStream(configFile);
-                    stream.write(data.toByteArray());
-                    stream.close();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                }, saveSessionDelay);
             }
         });
     }
 
+    private void writeSession() {
+        SerializedData data = new SerializedData();
+
+        data.writeInt32(useDifferentBackend);
+        data.writeInt32(SESSION_VERSION);
+        Datacenter currentDatacenter = datacenterWithId(currentDatacenterId);
+        if (currentDatacenter != null) {
+            ArrayList<Long> sessions = new ArrayList<Long>();
+            if (currentDatacenter.authSessionId != 0) {
+                sessions.add(currentDatacenter.authSessionId);
+            }
+            data.writeInt32(sessions.size());
+            for (long session : sessions) {
+                data.writeInt64(session);
+            }
+            data.writeInt32(timeDifference);
+            data.writeInt32(datacenters.size());
+            for (Datacenter datacenter : datacenters.values()) {
+                datacenter.SerializeToStream(data);
+            }
+            data.writeInt32(currentDatacenterId);
+        } else {
+            data.writeInt32(0);
+        }
+        sessionStore().write(SessionStore.seal(data));
+    }
+
     void clearRequestsForRequestClass(int requestClass, Datacenter datacenter) {
-        for (RPCRequest request : runningRequests) {
+        for (RPCRequest request : requests.running(RequestRegistry.transportClass(requestClass))) {
             Datacenter dcenter = datacenterWithId(request.runningDatacenterId);
             if ((request.flags & requestClass) != 0 && dcenter != null && dcenter.datacenterId == datacenter.datacenterId) {
-                request.runningMessageId = 0;
+                requests.setRunningMessageId(request, 0);
                 request.runningMessageSeqNo = 0;
                 request.runningStartTime = 0;
                 request.runningMinStartTime = 0;
@@ -275,6 +322,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
 
     void recreateSession(long sessionId, Datacenter datacenter) {
         messagesIdsForConfirmation.remove(sessionId);
+        confirmationConnections.remove(sessionId);
         processedMessageIdsSet.remove(sessionId);
         nextSeqNoInSession.remove(sessionId);
         processedSessionChanges.remove(sessionId);
@@ -282,7 +330,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
 
         if (sessionId == datacenter.authSessionId) {
             clearRequestsForRequestClass(RPCRequest.RPCRequestClassGeneric, datacenter);
-            if (DEBUG_VERSION) {
+            if (BuildVars.DEBUG_VERSION) {
                 Log.d("tmessages", "***** Recreate generic session");
             }
             datacenter.authSessionId = (long)(MessagesController.random.nextDouble() * Long.MAX_VALUE);
@@ -317,27 +365,17 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
     }
 
     boolean isMessageIdProcessed(long sessionId, long messageId) {
-        ArrayList<Long> set = processedMessageIdsSet.get(sessionId);
+        MessageIdWindow set = processedMessageIdsSet.get(sessionId);
         return set != null && set.contains(messageId);
     }
 
     void addProcessedMessageId(long sessionId, long messageId) {
-        ArrayList<Long> set = processedMessageIdsSet.get(sessionId);
-        if (set != null) {
-            final int eraseLimit = 1000;
-            final int eraseThreshold = 224;
-
-            if (set.size() > eraseLimit + eraseThreshold) {
-                for (int a = 0; a < Math.min(set.size(), eraseThreshold + 1); a++) {
-                    set.remove(0);
-                }
-            }
-            set.add(messageId);
-        } else {
-            ArrayList<Long> sessionMap = new ArrayList<Long>();
-            sessionMap.add(messageId);
-            processedMessageIdsSet.put(sessionId, sessionMap);
+        MessageIdWindow set = processedMessageIdsSet.get(sessionId);
+        if (set == null) {
+            set = new MessageIdWindow(PROCESSED_MESSAGE_IDS_LIMIT);
+            processedMessageIdsSet.put(sessionId, set);
         }
+        set.add(messageId);
     }
 
     //================================================================================
@@ -346,18 +384,17 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
     int lastClassGuid = 1;
     public int generateClassGuid() {
         int guid = lastClassGuid++;
-        ArrayList<Long> requests = new ArrayList<Long>();
-        requestsByGuids.put(guid, requests);
+        requestsByGuids.put(guid, new HashSet<Long>());
         return guid;
     }
 
     public void cancelRpcsForClassGuid(int guid) {
-        ArrayList<Long> requests = requestsByGuids.get(guid);
-        if (requests != null) {
-            for (Long request : requests) {
+        HashSet<Long> guidRequests = requestsByGuids.remove(guid);
+        if (guidRequests != null) {
+            for (Long request : guidRequests) {
                 cancelRpc(request, true);
+                requestsByClass.remove(request);
             }
-            requestsByGuids.remove(guid);
         }
     }
 
@@ -365,9 +402,9 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         Utilities.RunOnUIThread(new Runnable() {
             @Override
             public void run() {
-                ArrayList<Long> requests = requestsByGuids.get(guid);
-                if (requests != null) {
-                    requests.add(request);
+                HashSet<Long> guidRequests = requestsByGuids.get(guid);
+                if (guidRequests != null) {
+                    guidRequests.add(request);
                     requestsByClass.put(request, guid);
                 }
             }
@@ -378,11 +415,11 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         Utilities.RunOnUIThread(new Runnable() {
             @Override
             public void run() {
-                Integer guid = requestsByClass.get(request);
+                Integer guid = requestsByClass.remove(request);
                 if (guid != null) {
-                    ArrayList<Long> requests = requestsByGuids.get(guid);
-                    if (requests != null) {
-                        requests.remove(request);
+                    HashSet<Long> guidRequests = requestsByGuids.get(guid);
+                    if (guidRequests != null) {
+                        guidRequests.remove(request);
                     }
                 }
             }
@@ -401,7 +438,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         if (object.layer() > 0) {
             TLRPC.invokeWithLayer8 invoke = new TLRPC.invokeWithLayer8();
             invoke.query = object;
-            if (DEBUG_VERSION) {
+            if (BuildVars.DEBUG_VERSION) {
                 Log.d("wrap in layer", "" + object);
             }
             return invoke;
@@ -409,8 +446,27 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         return object;
     }
 
-    public static volatile long nextCallToken = 0;
     long performRpc(final TLObject rpc, final RPCRequest.RPCRequestDelegate completionBlock, final RPCRequest.RPCProgressDelegate progressBlock, final RPCRequest.RPCQuickAckDelegate quickAckBlock, final boolean requiresCompletion, final int requestClass, final int datacenterId) {
+        return performRpc(rpc, completionBlock, progressBlock, quickAckBlock, requiresCompletion, requestClass, datacenterId, defaultPriority(rpc, requestClass));
+    }
+
+    /**
+     * Lane of requests that don't ask for one: sending messages is interactive, file parts are
+     * background and everything else is normal.
+     */
+    static int defaultPriority(TLObject rpc, int requestClass) {
+        if (rpc instanceof TLRPC.TL_messages_sendMessage || rpc instanceof TLRPC.TL_messages_sendMedia ||
+                rpc instanceof TLRPC.TL_messages_forwardMessages || rpc instanceof TLRPC.TL_messages_sendEncrypted) {
+            return RPCRequest.RPCRequestPriorityInteractive;
+        }
+        if ((requestClass & (RPCRequest.RPCRequestClassDownloadMedia | RPCRequest.RPCRequestClassUploadMedia)) != 0) {
+            return RPCRequest.RPCRequestPriorityBackground;
+        }
+        return RPCRequest.RPCRequestPriorityNormal;
+    }
+
+    public static volatile long nextCallToken = 0;
+    public long performRpc(final TLObject rpc, final RPCRequest.RPCRequestDelegate completionBlock, final RPCRequest.RPCProgressDelegate progressBlock, final RPCRequest.RPCQuickAckDelegate quickAckBlock, final boolean requiresCompletion, final int requestClass, final int datacenterId, final int priority) {
 
         final long requestToken = nextCallToken++;
 
@@ -429,8 +485,10 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 request.progressBlock = progressBlock;
                 request.quickAckBlock = quickAckBlock;
                 request.requiresCompletion = requiresCompletion;
+                request.priority = Math.max(RPCRequest.RPCRequestPriorityInteractive, Math.min(RPCRequest.RPCRequestPriorityPrefetch, priority));
+                request.enqueueTime = System.currentTimeMillis();
 
-                requestQueue.add(request);
+                requests.enqueue(request);
 
                 processRequestQueue(0, 0);
             }
@@ -445,43 +503,35 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             public void run() {
                 boolean found = false;
 
-                for (int i = 0; i < requestQueue.size(); i++) {
-                    RPCRequest request = requestQueue.get(i);
-                    if (request.token == token) {
-                        found = true;
-                        request.cancelled = true;
-                        if (DEBUG_VERSION) {
-                            Log.d("tmessages", "===== Cancelled queued rpc request " + request.rawRequest);
-                        }
-                        requestQueue.remove(i);
-                        break;
+                RPCRequest request = requests.removeQueued(token);
+                if (request != null) {
+                    found = true;
+                    request.cancelled = true;
+                    if (BuildVars.DEBUG_VERSION) {
+                        Log.d("tmessages", "===== Cancelled queued rpc request " + request.rawRequest);
                     }
                 }
 
-                for (int i = 0; i < runningRequests.size(); i++) {
-                    RPCRequest request = runningRequests.get(i);
-                    if (request.token == token) {
-                        found = true;
+                request = requests.removeRunning(token);
+                if (request != null) {
+                    found = true;
 
-                        if (DEBUG_VERSION) {
-                            Log.d("tmessages", "===== Cancelled running rpc request " + request.rawRequest);
-                        }
+                    if (BuildVars.DEBUG_VERSION) {
+                        Log.d("tmessages", "===== Cancelled running rpc request " + request.rawRequest);
+                    }
 
-                        if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
-                            if (notifyServer) {
-                                TLRPC.TL_rpc_drop_answer dropAnswer = new TLRPC.TL_rpc_drop_answer();
-                                dropAnswer.req_msg_id = request.runningMessageId;
-                                performRpc(dropAnswer, null, null, false, request.flags);
-                            }
+                    if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
+                        if (notifyServer) {
+                            TLRPC.TL_rpc_drop_answer dropAnswer = new TLRPC.TL_rpc_drop_answer();
+                            dropAnswer.req_msg_id = request.runningMessageId;
+                            performRpc(dropAnswer, null, null, false, request.flags);
                         }
-
-                        request.cancelled = true;
-                        runningRequests.remove(i);
-                        break;
                     }
+
+                    request.cancelled = true;
                 }
                 if (!found) {
-                    if (DEBUG_VERSION) {
+                    if (BuildVars.DEBUG_VERSION) {
                         Log.d("tmessages", "***** Warning: cancelling unknown request");
                     }
                 }
@@ -513,72 +563,224 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         return (int)(System.currentTimeMillis() / 1000) + timeDifference;
     }
 
-    public void processRequestQueue(int requestClass, int _datacenterId) {
-        final HashMap<Integer, Integer> activeTransportTokens = new HashMap<Integer, Integer>();
-        final ArrayList<Integer> transportsToResume = new ArrayList<Integer>();
+    private static final int[] transportClasses = {RPCRequest.RPCRequestClassGeneric, RPCRequest.RPCRequestClassDownloadMedia, RPCRequest.RPCRequestClassUploadMedia};
+    private static final int[] queueClasses = {RPCRequest.RPCRequestClassGeneric, RPCRequest.RPCRequestClassDownloadMedia, RPCRequest.RPCRequestClassUploadMedia, 0};
 
-        final HashMap<Integer, Integer> activeDownloadTransportTokens = new HashMap<Integer, Integer>();
-        final ArrayList<Integer> downloadTransportsToResume = new ArrayList<Integer>();
+    static int compressThreshold = 512;
 
-        final HashMap<Integer, Integer> activeUploadTransportTokens = new HashMap<Integer, Integer>();
-        final ArrayList<Integer> uploadTransportsToResume = new ArrayList<Integer>();
+    private static boolean shouldCompress(RPCRequest request) {
+        if ((request.flags & (RPCRequest.RPCRequestClassDownloadMedia | RPCRequest.RPCRequestClassUploadMedia)) != 0) {
+            return false;
+        }
+        return !(request.rpcRequest instanceof TLRPC.TL_gzip_packed);
+    }
 
-        for (Datacenter datacenter : datacenters.values()) {
-            if (datacenter.connection != null) {
-                int channelToken = datacenter.connection.channelToken;
-                if (channelToken != 0) {
-                    activeTransportTokens.put(datacenter.datacenterId, channelToken);
+    /**
+     * Sets serializedLength of the request and, when a TL_gzip_packed of rpcRequest is smaller,
+     * keeps that in packedRequest. Done once when the request is dequeued, resends send the same
+     * body again. rpcRequest itself is left as it is.
+     */
+    private void prepareRequestBody(RPCRequest request) {
+        SerializedData sizeCalculator = new SerializedData(true);
+        request.rpcRequest.serializeToStream(sizeCalculator);
+        int length = sizeCalculator.length();
+        request.serializedLength = length;
+        request.packedRequest = null;
+        if (length < compressThreshold || !shouldCompress(request)) {
+            return;
+        }
+        SerializedData os = new SerializedData(length);
+        request.rpcRequest.serializeToStream(os);
+        byte[] data = os.toByteArray();
+        byte[] packedData = Utilities.compress(data, data.length - 8);
+        if (packedData == null) {
+            return;
+        }
+        TLRPC.TL_gzip_packed packed = new TLRPC.TL_gzip_packed();
+        packed.packed_data = packedData;
+        sizeCalculator.reset();
+        packed.serializeToStream(sizeCalculator);
+        if (sizeCalculator.length() >= data.length) {
+            return;
+        }
+        if (BuildVars.DEBUG_VERSION) {
+            Log.d("tmessages", "compressed " + request.rawRequest + " from " + data.length + " to " + sizeCalculator.length() + " bytes");
+        }
+        request.packedRequest = packed;
+        request.serializedLength = sizeCalculator.length();
+    }
+
+    private static TLObject requestBody(RPCRequest request) {
+        return request.packedRequest != null ? request.packedRequest : request.rpcRequest;
+    }
+
+    static int requestTimeout(RPCRequest request) {
+        if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
+            return 40;
+        } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
+            return 30;
+        }
+        return 8;
+    }
+
+    static final int minRequestTimeout = 2;
+
+    /**
+     * Seconds a request may run on the connection before it is sent again: the connection's
+     * retransmission timeout once it has rtt samples, up to three times the fixed timeout of the
+     * request class, which is used until then. Generic requests may go down to minRequestTimeout,
+     * media requests keep the fixed timeout as their floor since a part takes long to transfer.
+     */
+    static int requestTimeout(RPCRequest request, TcpConnection connection) {
+        int timeout = requestTimeout(request);
+        if (connection == null || !connection.rtt.hasSamples()) {
+            return timeout;
+        }
+        int rto = (connection.rtt.getRto() + 999) / 1000;
+        int minTimeout = (request.flags & RPCRequest.RPCRequestClassGeneric) != 0 ? minRequestTimeout : timeout;
+        return Math.max(minTimeout, Math.min(timeout * 3, rto));
+    }
+
+    /**
+     * Feeds the rtt of a request that got its answer or quick ack on the connection. Requests sent
+     * again under the same message id don't count, as the answer can't be told apart. Answers on
+     * media connections aren't passed here, their time is mostly the transfer of the part.
+     */
+    private void addRttSample(RPCRequest request, TcpConnection connection) {
+        if (request.runningSendTime == 0 || connection == null) {
+            return;
+        }
+        connection.rtt.addSample((int)(System.currentTimeMillis() - request.runningSendTime));
+    }
+
+    /**
+     * First second at which a running request that isn't due yet will be, with a poll in a second
+     * if the times look off, as after the clock was changed.
+     */
+    static int nextResendCheckTime(RPCRequest request, int currentTime, int maxTimeout) {
+        int time = Math.max(request.runningStartTime + maxTimeout + 1, request.runningMinStartTime + 1);
+        if (time <= currentTime || time > currentTime + maxTimeout + 60) {
+            return currentTime + 1;
+        }
+        return time;
+    }
+
+    /**
+     * Token of the pooled connection the media request went out on, 0 if it has none or that one
+     * isn't connected.
+     */
+    private static int pooledChannelToken(RPCRequest request) {
+        return request.transportConnection != null ? request.transportConnection.channelToken : 0;
+    }
+
+    private static TcpConnection[] pooledConnections(Datacenter datacenter, int transportClass) {
+        return transportClass == RPCRequest.RPCRequestClassUploadMedia ? datacenter.uploadConnections : datacenter.downloadConnections;
+    }
+
+    private static long[] pooledSessionIds(Datacenter datacenter, int transportClass) {
+        return transportClass == RPCRequest.RPCRequestClassUploadMedia ? datacenter.authUploadSessionIds : datacenter.authDownloadSessionIds;
+    }
+
+    /**
+     * Returns the pooled media connection, creating it and its session on first use.
+     */
+    private TcpConnection pooledConnection(Datacenter datacenter, int transportClass, int num) {
+        TcpConnection[] connections = pooledConnections(datacenter, transportClass);
+        if (connections[num] == null) {
+            connections[num] = new TcpConnection(datacenter.address, datacenter.port, datacenter.datacenterId, transportClass, num);
+            connections[num].delegate = this;
+            pooledSessionIds(datacenter, transportClass)[num] = (long)(MessagesController.random.nextDouble() * Long.MAX_VALUE);
+        }
+        return connections[num];
+    }
+
+    /**
+     * Index of the pooled connection with the fewest outstanding bytes, connected ones are preferred.
+     */
+    private static int leastLoadedConnection(TcpConnection[] connections) {
+        int best = 0;
+        long bestLoad = Long.MAX_VALUE;
+        for (int a = 0; a < connections.length; a++) {
+            TcpConnection connection = connections[a];
+            long load = Integer.MAX_VALUE;
+            if (connection != null) {
+                load = connection.outstandingBytes;
+                if (connection.channelToken == 0) {
+                    load += Integer.MAX_VALUE;
                 }
             }
-            if (datacenter.downloadConnection != null) {
-                int channelToken = datacenter.downloadConnection.channelToken;
-                if (channelToken != 0) {
-                    activeDownloadTransportTokens.put(datacenter.datacenterId, channelToken);
-                }
+            if (load < bestLoad) {
+                best = a;
+                bestLoad = load;
             }
-            if (datacenter.uploadConnection != null) {
-                int channelToken = datacenter.uploadConnection.channelToken;
-                if (channelToken != 0) {
-                    activeUploadTransportTokens.put(datacenter.datacenterId, channelToken);
-                }
+        }
+        return best;
+    }
+
+    /**
+     * Bytes a media request moves over its connection, the requested part for downloads.
+     */
+    static int requestTransferSize(RPCRequest request) {
+        if (request.rawRequest instanceof TLRPC.TL_upload_getFile) {
+            return ((TLRPC.TL_upload_getFile)request.rawRequest).limit;
+        }
+        return request.serializedLength;
+    }
+
+    private void collectTransportsToResume(int requestClass, HashMap<Integer, Integer> activeTokens, HashSet<Integer> transportsToResume) {
+        for (int datacenterId : requests.datacenters(requestClass)) {
+            Datacenter requestDatacenter = datacenterWithId(datacenterId);
+            if (requestDatacenter != null && !activeTokens.containsKey(requestDatacenter.datacenterId)) {
+                transportsToResume.add(requestDatacenter.datacenterId);
             }
         }
-        for (RPCRequest request : runningRequests) {
-            if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
-                Datacenter requestDatacenter = datacenterWithId(request.runningDatacenterId);
-                if (requestDatacenter != null && !activeTransportTokens.containsKey(requestDatacenter.datacenterId)) {
-                    transportsToResume.add(requestDatacenter.datacenterId);
-                }
-            } else if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
-                Datacenter requestDatacenter = datacenterWithId(request.runningDatacenterId);
-                if (requestDatacenter != null && !activeDownloadTransportTokens.containsKey(requestDatacenter.datacenterId)) {
-                    downloadTransportsToResume.add(requestDatacenter.datacenterId);
-                }
-            } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
-                Datacenter requestDatacenter = datacenterWithId(request.runningDatacenterId);
-                if (requestDatacenter != null && !activeUploadTransportTokens.containsKey(requestDatacenter.datacenterId)) {
-                    uploadTransportsToResume.add(requestDatacenter.datacenterId);
-                }
+    }
+
+    /**
+     * Adds the pooled connections of the media class that have to be connected: the one each
+     * running request went out on, and per datacenter with requests of the class the one its next
+     * request goes out on. Connections nobody waits for are left alone.
+     */
+    private void collectPooledConnectionsToResume(int transportClass, HashSet<TcpConnection> connectionsToResume) {
+        for (RPCRequest request : requests.running(transportClass)) {
+            if (request.transportConnection != null && pooledChannelToken(request) == 0) {
+                connectionsToResume.add(request.transportConnection);
             }
         }
-        for (RPCRequest request : requestQueue) {
-            if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
-                Datacenter requestDatacenter = datacenterWithId(request.runningDatacenterId);
-                if (requestDatacenter != null && !activeTransportTokens.containsKey(requestDatacenter.datacenterId)) {
-                    transportsToResume.add(requestDatacenter.datacenterId);
-                }
-            } else if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
-                Datacenter requestDatacenter = datacenterWithId(request.runningDatacenterId);
-                if (requestDatacenter != null && !activeDownloadTransportTokens.containsKey(requestDatacenter.datacenterId)) {
-                    downloadTransportsToResume.add(requestDatacenter.datacenterId);
-                }
-            } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
-                Datacenter requestDatacenter = datacenterWithId(request.runningDatacenterId);
-                if (requestDatacenter != null && !activeUploadTransportTokens.containsKey(requestDatacenter.datacenterId)) {
-                    uploadTransportsToResume.add(requestDatacenter.datacenterId);
+        for (int datacenterId : requests.datacenters(transportClass)) {
+            Datacenter datacenter = datacenterWithId(datacenterId);
+            if (datacenter == null || datacenter.authKey == null) {
+                continue;
+            }
+            TcpConnection connection = pooledConnection(datacenter, transportClass, leastLoadedConnection(pooledConnections(datacenter, transportClass)));
+            if (connection.channelToken == 0) {
+                connectionsToResume.add(connection);
+            }
+        }
+    }
+
+    /**
+     * Sends what can be sent. Running requests are only looked at when their check time in the
+     * registry has come or when requestClass forces a resend of their class, queued ones are walked
+     * per transport class and a class is left as soon as its running limit is reached.
+     */
+    public void processRequestQueue(int requestClass, int _datacenterId) {
+        final HashMap<Integer, Integer> activeTransportTokens = new HashMap<Integer, Integer>();
+        final HashSet<Integer> transportsToResume = new HashSet<Integer>();
+
+        final HashSet<TcpConnection> pooledConnectionsToResume = new HashSet<TcpConnection>();
+
+        for (Datacenter datacenter : datacenters.values()) {
+            if (datacenter.connection != null) {
+                int channelToken = datacenter.connection.channelToken;
+                if (channelToken != 0) {
+                    activeTransportTokens.put(datacenter.datacenterId, channelToken);
                 }
             }
         }
+        collectTransportsToResume(RPCRequest.RPCRequestClassGeneric, activeTransportTokens, transportsToResume);
+        collectPooledConnectionsToResume(RPCRequest.RPCRequestClassDownloadMedia, pooledConnectionsToResume);
+        collectPooledConnectionsToResume(RPCRequest.RPCRequestClassUploadMedia, pooledConnectionsToResume);
 
         boolean haveNetwork = true;//activeTransportTokens.size() != 0 || isNetworkOnline();
 
@@ -590,10 +792,8 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             Datacenter datacenter = datacenterWithId(it);
             if (datacenter.authKey != null) {
                 if (datacenter.connection == null) {
-                    datacenter.connection = new TcpConnection(datacenter.address, datacenter.port);
+                    datacenter.connection = new TcpConnection(datacenter.address, datacenter.port, datacenter.datacenterId, RPCRequest.RPCRequestClassGeneric);
                     datacenter.connection.delegate = this;
-                    datacenter.connection.transportRequestClass = RPCRequest.RPCRequestClassGeneric;
-                    datacenter.connection.datacenterId = datacenter.datacenterId;
                 }
                 datacenter.connection.connect();
                 /*if (it == currentDatacenterId) {
@@ -610,31 +810,8 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                  }*/
             }
         }
-        for (int it : downloadTransportsToResume) {
-            Datacenter datacenter = datacenterWithId(it);
-            if (datacenter.authKey != null) {
-                if (datacenter.downloadConnection == null) {
-                    datacenter.downloadConnection = new TcpConnection(datacenter.address, datacenter.port);
-                    datacenter.downloadConnection.delegate = this;
-                    datacenter.downloadConnection.transportRequestClass = RPCRequest.RPCRequestClassDownloadMedia;
-                    datacenter.downloadConnection.datacenterId = datacenter.datacenterId;
-                    datacenter.authDownloadSessionId = (long)(MessagesController.random.nextDouble() * Long.MAX_VALUE);
-                }
-                datacenter.downloadConnection.connect();
-            }
-        }
-        for (int it : uploadTransportsToResume) {
-            Datacenter datacenter = datacenterWithId(it);
-            if (datacenter.authKey != null) {
-                if (datacenter.uploadConnection == null) {
-                    datacenter.uploadConnection = new TcpConnection(datacenter.address, datacenter.port);
-                    datacenter.uploadConnection.delegate = this;
-                    datacenter.uploadConnection.transportRequestClass = RPCRequest.RPCRequestClassUploadMedia;
-                    datacenter.uploadConnection.datacenterId = datacenter.datacenterId;
-                    datacenter.authUploadSessionId = (long)(MessagesController.random.nextDouble() * Long.MAX_VALUE);
-                }
-                datacenter.uploadConnection.connect();
-            }
+        for (TcpConnection connection : pooledConnectionsToResume) {
+            connection.connect();
         }
 
         final HashMap<Integer, ArrayList<NetworkMessage>> genericMessagesToDatacenters = new HashMap<Integer, ArrayList<NetworkMessage>>();
@@ -644,7 +821,22 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         final ArrayList<Integer> unauthorizedDatacenterIds = new ArrayList<Integer>();
 
         int currentTime = (int)(System.currentTimeMillis() / 1000);
-        for (RPCRequest request : runningRequests) {
+        final LinkedHashSet<RPCRequest> requestsToCheck = new LinkedHashSet<RPCRequest>();
+        if ((requestClass & ~RPCRequest.RPCRequestClassTransportMask) != 0) {
+            requestsToCheck.addAll(requests.running());
+        } else if (requestClass != 0) {
+            for (int transportClass : transportClasses) {
+                if ((requestClass & transportClass) != 0) {
+                    requestsToCheck.addAll(requests.running(transportClass));
+                }
+            }
+        }
+        requests.takeDue(currentTime, requestsToCheck);
+
+        for (RPCRequest request : requestsToCheck) {
+            // checked again every second while it can't be sent, the paths below move it further
+            requests.scheduleCheck(request, currentTime + 1);
+
             int datacenterId = request.runningDatacenterId;
             if (datacenterId == DEFAULT_DATACENTER_ID) {
                 if (movingToDatacenterId != DEFAULT_DATACENTER_ID) {
@@ -674,46 +866,51 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             Integer tokenIt = activeTransportTokens.get(requestDatacenter.datacenterId);
             int datacenterTransportToken = tokenIt != null ? tokenIt : 0;
 
-            double maxTimeout = 8.0;
-
             if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
                 if (datacenterTransportToken == 0) {
                     continue;
                 }
             } else if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
                 if (!haveNetwork) {
-                    if (DEBUG_VERSION) {
+                    if (BuildVars.DEBUG_VERSION) {
                         Log.d("tmessages", "Don't have any network connection, skipping download request");
                     }
                     continue;
                 }
-                maxTimeout = 40.0;
             } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
                 if (!haveNetwork) {
-                    if (DEBUG_VERSION) {
+                    if (BuildVars.DEBUG_VERSION) {
                         Log.d("tmessages", "Don't have any network connection, skipping upload request");
                     }
                     continue;
                 }
-                maxTimeout = 30.0;
             }
 
             long sessionId = 0;
+            TcpConnection mediaConnection = null;
             if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
                 sessionId = requestDatacenter.authSessionId;
-            } else if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
-                sessionId = requestDatacenter.authDownloadSessionId;
-            } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0 ) {
-                sessionId = requestDatacenter.authUploadSessionId;
+            } else if ((request.flags & (RPCRequest.RPCRequestClassDownloadMedia | RPCRequest.RPCRequestClassUploadMedia)) != 0) {
+                // a request keeps its connection while its seqno belongs to that connection's session
+                int transportClass = RequestRegistry.transportClass(request.flags);
+                if (request.runningMessageSeqNo != 0 && request.transportConnection != null && request.transportConnection.datacenterId == requestDatacenter.datacenterId) {
+                    mediaConnection = request.transportConnection;
+                } else {
+                    mediaConnection = pooledConnection(requestDatacenter, transportClass, leastLoadedConnection(pooledConnections(requestDatacenter, transportClass)));
+                }
+                sessionId = pooledSessionIds(requestDatacenter, transportClass)[mediaConnection.connectionNum];
             }
 
+            TcpConnection requestConnection = mediaConnection != null ? mediaConnection : requestDatacenter.connection;
+            int maxTimeout = requestTimeout(request, requestConnection);
+
             boolean forceThisRequest = (request.flags & requestClass) != 0 && (_datacenterId == Integer.MIN_VALUE || requestDatacenter.datacenterId == _datacenterId);
 
             if (request.rawRequest instanceof TLRPC.TL_get_future_salts || request.rawRequest instanceof TLRPC.TL_destroy_session) {
                 if (request.runningMessageId != 0) {
-                    request.addRespondMessageId(request.runningMessageId);
+                    requests.addRespondMessageId(request, request.runningMessageId);
                 }
-                request.runningMessageId = 0;
+                requests.setRunningMessageId(request, 0);
                 request.runningMessageSeqNo = 0;
                 request.transportChannelToken = 0;
                 forceThisRequest = false;
@@ -722,24 +919,27 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             if (((Math.abs(currentTime - request.runningStartTime) > maxTimeout) && (currentTime > request.runningMinStartTime || Math.abs(currentTime - request.runningMinStartTime) > 60.0)) || forceThisRequest) {
                 if (!forceThisRequest && request.transportChannelToken > 0) {
                     if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0 && datacenterTransportToken == request.transportChannelToken) {
-                        if (DEBUG_VERSION) {
+                        if (BuildVars.DEBUG_VERSION) {
                             Log.d("tmessages", "Request token is valid, not retrying " + request.rawRequest);
                         }
+                        requests.scheduleCheck(request, currentTime + maxTimeout);
                         continue;
                     } else if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
-                        int downloadToken = requestDatacenter.downloadConnection.channelToken;
+                        int downloadToken = mediaConnection.channelToken;
                         if (downloadToken != 0 && request.transportChannelToken == downloadToken) {
-                            if (DEBUG_VERSION) {
+                            if (BuildVars.DEBUG_VERSION) {
                                 Log.d("tmessages", "Request download token is valid, not retrying " + request.rawRequest);
                             }
+                            requests.scheduleCheck(request, currentTime + maxTimeout);
                             continue;
                         }
                     } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
-                        int uploadToken = requestDatacenter.uploadConnection.channelToken;
+                        int uploadToken = mediaConnection.channelToken;
                         if (uploadToken != 0 && request.transportChannelToken == uploadToken) {
-                            if (DEBUG_VERSION) {
+                            if (BuildVars.DEBUG_VERSION) {
                                 Log.d("tmessages", "Request upload token is valid, not retrying " + request.rawRequest);
                             }
+                            requests.scheduleCheck(request, currentTime + maxTimeout);
                             continue;
                         }
                     }
@@ -750,29 +950,36 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
 
                 if (request.runningMessageSeqNo == 0) {
                     request.runningMessageSeqNo = generateMessageSeqNo(sessionId, true);
-                    request.runningMessageId = generateMessageId();
+                    requests.setRunningMessageId(request, generateMessageId());
+                    request.runningSendTime = System.currentTimeMillis();
+                } else {
+                    if (!forceThisRequest && request.runningStartTime != 0 && requestConnection != null) {
+                        requestConnection.rtt.backoff(System.currentTimeMillis());
+                    }
+                    request.runningSendTime = 0;
                 }
                 networkMessage.protoMessage.msg_id = request.runningMessageId;
                 networkMessage.protoMessage.seqno = request.runningMessageSeqNo;
                 networkMessage.protoMessage.bytes = request.serializedLength;
-                networkMessage.protoMessage.body = request.rpcRequest;
+                networkMessage.protoMessage.body = requestBody(request);
                 networkMessage.rawRequest = request.rawRequest;
                 networkMessage.requestId = request.token;
+                networkMessage.priority = request.effectivePriority(System.currentTimeMillis());
 
                 request.runningStartTime = currentTime;
+                requests.scheduleCheck(request, currentTime + maxTimeout + 1);
 
                 if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
                     request.transportChannelToken = datacenterTransportToken;
                     addMessageToDatacenter(genericMessagesToDatacenters, requestDatacenter.datacenterId, networkMessage);
-                } else if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
-                    ArrayList<NetworkMessage> arr = new ArrayList<NetworkMessage>();
-                    arr.add(networkMessage);
-                    proceedToSendingMessages(arr, sessionId, requestDatacenter.downloadConnection, false, false);
-                } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
+                } else if (mediaConnection != null) {
+                    requests.assignConnection(request, mediaConnection, requestTransferSize(request));
                     ArrayList<NetworkMessage> arr = new ArrayList<NetworkMessage>();
                     arr.add(networkMessage);
-                    proceedToSendingMessages(arr, sessionId, requestDatacenter.uploadConnection, false, false);
+                    proceedToSendingMessages(arr, sessionId, mediaConnection, false, false);
                 }
+            } else {
+                requests.scheduleCheck(request, nextResendCheckTime(request, currentTime, maxTimeout));
             }
         }
 
@@ -802,161 +1009,160 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             }
         }
 
-        int genericRunningRequestCount = 0;
-        int uploadRunningRequestCount = 0;
-        int downloadRunningRequestCount = 0;
+        int genericRunningRequestCount = requests.runningCount(RPCRequest.RPCRequestClassGeneric);
+        int uploadRunningRequestCount = requests.runningCount(RPCRequest.RPCRequestClassUploadMedia);
+        int downloadRunningRequestCount = requests.runningCount(RPCRequest.RPCRequestClassDownloadMedia);
 
-        for (RPCRequest request : runningRequests) {
-            if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
-                genericRunningRequestCount++;
-            } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
-                uploadRunningRequestCount++;
-            } else if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
-                downloadRunningRequestCount++;
-            }
-        }
+        final ArrayList<Long> dequeuedTokens = new ArrayList<Long>();
+        long priorityTime = System.currentTimeMillis();
+        for (int queueClass : queueClasses) {
+            for (RPCRequest request : requests.queued(queueClass, priorityTime)) {
+                if (request.cancelled) {
+                    dequeuedTokens.add(request.token);
+                    continue;
+                }
 
-        for (int i = 0; i < requestQueue.size(); i++) {
-            RPCRequest request = requestQueue.get(i);
-            if (request.cancelled) {
-                requestQueue.remove(i);
-                i--;
-                continue;
-            }
+                int datacenterId = request.runningDatacenterId;
+                if (datacenterId == DEFAULT_DATACENTER_ID) {
+                    if (movingToDatacenterId != DEFAULT_DATACENTER_ID && (request.flags & RPCRequest.RPCRequestClassEnableUnauthorized) == 0) {
+                        continue;
+                    }
+                    datacenterId = currentDatacenterId;
+                }
 
-            int datacenterId = request.runningDatacenterId;
-            if (datacenterId == DEFAULT_DATACENTER_ID) {
-                if (movingToDatacenterId != DEFAULT_DATACENTER_ID && (request.flags & RPCRequest.RPCRequestClassEnableUnauthorized) == 0) {
+                Datacenter requestDatacenter = datacenterWithId(datacenterId);
+                if (requestDatacenter == null) {
+                    unknownDatacenterIds.add(datacenterId);
+                    continue;
+                } else if (requestDatacenter.authKey == null) {
+                    neededDatacenterIds.add(datacenterId);
+                    continue;
+                } else if (!requestDatacenter.authorized && request.runningDatacenterId != DEFAULT_DATACENTER_ID && request.runningDatacenterId != currentDatacenterId && (request.flags & RPCRequest.RPCRequestClassEnableUnauthorized) == 0) {
+                    unauthorizedDatacenterIds.add(datacenterId);
                     continue;
                 }
-                datacenterId = currentDatacenterId;
-            }
 
-            Datacenter requestDatacenter = datacenterWithId(datacenterId);
-            if (requestDatacenter == null) {
-                unknownDatacenterIds.add(datacenterId);
-                continue;
-            } else if (requestDatacenter.authKey == null) {
-                neededDatacenterIds.add(datacenterId);
-                continue;
-            } else if (!requestDatacenter.authorized && request.runningDatacenterId != DEFAULT_DATACENTER_ID && request.runningDatacenterId != currentDatacenterId && (request.flags & RPCRequest.RPCRequestClassEnableUnauthorized) == 0) {
-                unauthorizedDatacenterIds.add(datacenterId);
-                continue;
-            }
+                if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0 && activeTransportTokens.get(requestDatacenter.datacenterId) == null) {
+                    continue;
+                }
 
-            if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0 && activeTransportTokens.get(requestDatacenter.datacenterId) == null) {
-                continue;
-            }
+                if (updatingState && (request.rawRequest instanceof TLRPC.TL_account_updateStatus || request.rawRequest instanceof TLRPC.TL_account_registerDevice)) {
+                    continue;
+                }
 
-            if (updatingState && (request.rawRequest instanceof TLRPC.TL_account_updateStatus || request.rawRequest instanceof TLRPC.TL_account_registerDevice)) {
-                continue;
-            }
+                if (request.requiresCompletion) {
+                    if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
+                        if (genericRunningRequestCount >= 60) {
+                            if (requests.hasQueuedWithoutCompletion(queueClass)) {
+                                continue;
+                            }
+                            break;
+                        }
 
-            if (request.requiresCompletion) {
-                if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
-                    if (genericRunningRequestCount >= 60)
-                        continue;
+                        genericRunningRequestCount++;
 
-                    genericRunningRequestCount++;
+                        Integer tokenIt = activeTransportTokens.get(requestDatacenter.datacenterId);
+                        request.transportChannelToken = tokenIt != null ? tokenIt : 0;
+                    } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
+                        if (uploadRunningRequestCount >= 20) {
+                            if (requests.hasQueuedWithoutCompletion(queueClass)) {
+                                continue;
+                            }
+                            break;
+                        }
 
-                    Integer tokenIt = activeTransportTokens.get(requestDatacenter.datacenterId);
-                    request.transportChannelToken = tokenIt != null ? tokenIt : 0;
-                } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
-                    if (uploadRunningRequestCount >= 20)
-                        continue;
+                        if (!haveNetwork) {
+                            if (BuildVars.DEBUG_VERSION) {
+                                Log.d("tmessages", "Don't have any network connection, skipping upload request");
+                            }
+                            continue;
+                        }
 
-                    if (!haveNetwork) {
-                        if (DEBUG_VERSION) {
-                            Log.d("tmessages", "Don't have any network connection, skipping upload request");
+                        if (uploadRunningRequestCount >= 5) {
+                            if (requests.hasQueuedWithoutCompletion(queueClass)) {
+                                continue;
+                            }
+                            break;
                         }
-                        continue;
-                    }
 
-                    if (uploadRunningRequestCount >= 5) {
-                        continue;
-                    }
+                        uploadRunningRequestCount++;
+                    } else if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
+                        if (!haveNetwork) {
+                            if (BuildVars.DEBUG_VERSION) {
+                                Log.d("tmessages", "Don't have any network connection, skipping download request");
+                            }
+                            continue;
+                        }
 
-                    uploadRunningRequestCount++;
-                } else if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
-                    if (!haveNetwork) {
-                        if (DEBUG_VERSION) {
-                            Log.d("tmessages", "Don't have any network connection, skipping download request");
+                        if (downloadRunningRequestCount >= 5) {
+                            if (requests.hasQueuedWithoutCompletion(queueClass)) {
+                                continue;
+                            }
+                            break;
                         }
-                        continue;
-                    }
 
-                    if (downloadRunningRequestCount >= 5) {
-                        continue;
+                        downloadRunningRequestCount++;
                     }
-
-                    downloadRunningRequestCount++;
                 }
-            }
 
-            long messageId = generateMessageId();
+                long messageId = generateMessageId();
 
-            SerializedData os = new SerializedData();
-            request.rpcRequest.serializeToStream(os);
+                prepareRequestBody(request);
 
-            if (os.length() != 0) {
-                long sessionId = 0;
-                if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
-                    sessionId = requestDatacenter.authSessionId;
-                } else if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
-                    sessionId = requestDatacenter.authDownloadSessionId;
-                } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
-                    sessionId = requestDatacenter.authUploadSessionId;
-                }
-
-                NetworkMessage networkMessage = new NetworkMessage();
-                networkMessage.protoMessage = new TLRPC.TL_protoMessage();
-                networkMessage.protoMessage.msg_id = messageId;
-                networkMessage.protoMessage.seqno = generateMessageSeqNo(sessionId, true);
-                networkMessage.protoMessage.bytes = os.length();
-                networkMessage.protoMessage.body = request.rpcRequest;
-                networkMessage.rawRequest = request.rawRequest;
-                networkMessage.requestId = request.token;
+                if (request.serializedLength != 0) {
+                    long sessionId = 0;
+                    TcpConnection mediaConnection = null;
+                    if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
+                        sessionId = requestDatacenter.authSessionId;
+                    } else if ((request.flags & (RPCRequest.RPCRequestClassDownloadMedia | RPCRequest.RPCRequestClassUploadMedia)) != 0) {
+                        int transportClass = RequestRegistry.transportClass(request.flags);
+                        mediaConnection = pooledConnection(requestDatacenter, transportClass, leastLoadedConnection(pooledConnections(requestDatacenter, transportClass)));
+                        sessionId = pooledSessionIds(requestDatacenter, transportClass)[mediaConnection.connectionNum];
+                    }
 
-                request.runningMessageId = messageId;
-                request.runningMessageSeqNo = networkMessage.protoMessage.seqno;
-                request.serializedLength = os.length();
-                request.runningStartTime = (int)(System.currentTimeMillis() / 1000);
-                if (request.requiresCompletion) {
-                    runningRequests.add(request);
-                }
+                    NetworkMessage networkMessage = new NetworkMessage();
+                    networkMessage.protoMessage = new TLRPC.TL_protoMessage();
+                    networkMessage.protoMessage.msg_id = messageId;
+                    networkMessage.protoMessage.seqno = generateMessageSeqNo(sessionId, true);
+                    networkMessage.protoMessage.bytes = request.serializedLength;
+                    networkMessage.protoMessage.body = requestBody(request);
+                    networkMessage.rawRequest = request.rawRequest;
+                    networkMessage.requestId = request.token;
+                    networkMessage.priority = request.effectivePriority(priorityTime);
+
+                    requests.setRunningMessageId(request, messageId);
+                    request.runningMessageSeqNo = networkMessage.protoMessage.seqno;
+                    request.runningSendTime = System.currentTimeMillis();
+                    request.runningStartTime = (int)(request.runningSendTime / 1000);
+                    if (request.requiresCompletion) {
+                        requests.startRunning(request);
+                        requests.scheduleCheck(request, request.runningStartTime + requestTimeout(request, mediaConnection != null ? mediaConnection : requestDatacenter.connection) + 1);
+                    }
 
-                if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
-                    addMessageToDatacenter(genericMessagesToDatacenters, requestDatacenter.datacenterId, networkMessage);
-                } else if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
-                    ArrayList<NetworkMessage> arr = new ArrayList<NetworkMessage>();
-                    arr.add(networkMessage);
-                    proceedToSendingMessages(arr, sessionId, requestDatacenter.downloadConnection, false, false);
-                } else if ((request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
-                    ArrayList<NetworkMessage> arr = new ArrayList<NetworkMessage>();
-                    arr.add(networkMessage);
-                    proceedToSendingMessages(arr, sessionId, requestDatacenter.uploadConnection, false, false);
+                    if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
+                        addMessageToDatacenter(genericMessagesToDatacenters, requestDatacenter.datacenterId, networkMessage);
+                    } else if (mediaConnection != null) {
+                        requests.assignConnection(request, mediaConnection, requestTransferSize(request));
+                        ArrayList<NetworkMessage> arr = new ArrayList<NetworkMessage>();
+                        arr.add(networkMessage);
+                        proceedToSendingMessages(arr, sessionId, mediaConnection, false, false);
+                    } else {
+                        if (BuildVars.DEBUG_VERSION) {
+                            Log.e("tmessages", "***** Error: request " + request.rawRequest + " has undefined session");
+                        }
+                    }
                 } else {
-                    if (DEBUG_VERSION) {
-                        Log.e("tmessages", "***** Error: request " + request.rawRequest + " has undefined session");
+                    if (BuildVars.DEBUG_VERSION) {
+                        Log.e("tmessages", "***** Couldn't serialize " + request.rawRequest);
                     }
                 }
-            } else {
-                if (DEBUG_VERSION) {
-                    Log.e("tmessages", "***** Couldn't serialize " + request.rawRequest);
-                }
-            }
-
-            requestQueue.remove(i);
-            i--;
-        }
 
-        for (Datacenter datacenter : datacenters.values()) {
-            if (genericMessagesToDatacenters.get(datacenter.datacenterId) == null && datacenter.connection != null && datacenter.connection.channelToken != 0) {
-                ArrayList<Long> arr = messagesIdsForConfirmation.get(datacenter.authSessionId);
-                if (arr != null && arr.size() != 0) {
-                    genericMessagesToDatacenters.put(datacenter.datacenterId, new ArrayList<NetworkMessage>());
-                }
+                dequeuedTokens.add(request.token);
             }
+            for (long token : dequeuedTokens) {
+                requests.removeQueued(token);
+            }
+            dequeuedTokens.clear();
         }
 
         for (int iter : genericMessagesToDatacenters.keySet()) {
@@ -999,7 +1205,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                             }
 
                             long maxRequestId = 0;
-                            for (RPCRequest request : runningRequests) {
+                            for (RPCRequest request : requests.running()) {
                                 if (request.rawRequest instanceof TLRPC.TL_messages_sendMessage ||
                                         request.rawRequest instanceof TLRPC.TL_messages_sendMedia ||
                                         request.rawRequest instanceof TLRPC.TL_messages_forwardMessages ||
@@ -1027,10 +1233,8 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 }
 
                 if (datacenter.connection == null) {
-                    datacenter.connection = new TcpConnection(datacenter.address, datacenter.port);
+                    datacenter.connection = new TcpConnection(datacenter.address, datacenter.port, datacenter.datacenterId, RPCRequest.RPCRequestClassGeneric);
                     datacenter.connection.delegate = this;
-                    datacenter.connection.transportRequestClass = RPCRequest.RPCRequestClassGeneric;
-                    datacenter.connection.datacenterId = datacenter.datacenterId;
                 }
 
                 proceedToSendingMessages(arr, datacenter.authSessionId, datacenter.connection, hasSendMessage, arr.size() != 0);
@@ -1073,21 +1277,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
 
         for (int num : neededDatacenterIds) {
             if (num != movingToDatacenterId) {
-                boolean notFound = true;
-                for (Action actor : actionQueue) {
-                    if (actor instanceof HandshakeAction) {
-                        HandshakeAction eactor = (HandshakeAction)actor;
-                        if (eactor.datacenter.datacenterId == num) {
-                            notFound = false;
-                            break;
-                        }
-                    }
-                }
-                if (notFound) {
-                    HandshakeAction actor = new HandshakeAction(datacenterWithId(num));
-                    actor.delegate = this;
-                    dequeueActor(actor, true);
-                }
+                startHandshake(datacenterWithId(num));
             }
         }
 
@@ -1112,6 +1302,68 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         }
     }
 
+    /**
+     * Starts a handshake with the datacenter unless one is running already.
+     */
+    void startHandshake(Datacenter datacenter) {
+        for (Action actor : actionQueue) {
+            if (actor instanceof HandshakeAction && ((HandshakeAction)actor).datacenter.datacenterId == datacenter.datacenterId) {
+                return;
+            }
+        }
+        HandshakeAction actor = new HandshakeAction(datacenter);
+        actor.delegate = this;
+        dequeueActor(actor, true);
+    }
+
+    public static boolean prefetchAuthKeys = true;
+
+    /**
+     * Starts handshakes with every known datacenter that has no auth key yet, so they run side by
+     * side and media datacenters are ready before their first request.
+     */
+    void handshakeAllDatacenters() {
+        if (!prefetchAuthKeys) {
+            return;
+        }
+        for (Datacenter datacenter : datacenters.values()) {
+            if (datacenter.authKey == null && datacenter.datacenterId != movingToDatacenterId) {
+                startHandshake(datacenter);
+            }
+        }
+    }
+
+    /**
+     * Weighted round robin over the lanes of the messages: every round takes up to the lane's
+     * weight of messages from each lane, interactive first, so lower lanes get a share of every
+     * container but never hold up the ones above. Keeps the order within a lane.
+     */
+    static ArrayList<NetworkMessage> prioritizedMessages(ArrayList<NetworkMessage> messages) {
+        int lanesUsed = 0;
+        for (NetworkMessage message : messages) {
+            lanesUsed |= 1 << message.priority;
+        }
+        if (Integer.bitCount(lanesUsed) < 2) {
+            return messages;
+        }
+
+        int[] next = new int[RPCRequest.RPCRequestPriorityCount];
+        ArrayList<NetworkMessage> result = new ArrayList<NetworkMessage>(messages.size());
+        while (result.size() < messages.size()) {
+            for (int lane = 0; lane < RPCRequest.RPCRequestPriorityCount; lane++) {
+                int taken = 0;
+                while (taken < RPCRequest.priorityWeights[lane] && next[lane] < messages.size()) {
+                    NetworkMessage message = messages.get(next[lane]++);
+                    if (message.priority == lane) {
+                        result.add(message);
+                        taken++;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
     void addMessageToDatacenter(HashMap<Integer, ArrayList<NetworkMessage>> pMap, int datacenterId, NetworkMessage message) {
         ArrayList<NetworkMessage> arr = pMap.get(datacenterId);
         if (arr == null) {
@@ -1133,13 +1385,52 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             protoMessage.seqno = generateMessageSeqNo(sessionId, meaningful);
             return protoMessage;
         } else {
-            if (DEBUG_VERSION) {
+            if (BuildVars.DEBUG_VERSION) {
                 Log.e("tmessages", "***** Couldn't serialize " + message);
             }
             return null;
         }
     }
 
+    public static int confirmationDelay = 100;
+    public static int maxPendingConfirmations = 64;
+
+    /**
+     * Queues the ack of a received content message. Acks go out with the next messages sent in
+     * the session, but no later than confirmationDelay ms after the first of them came in, or
+     * right away once maxPendingConfirmations piled up.
+     */
+    void confirmMessage(final long sessionId, TcpConnection connection, long messageId) {
+        ArrayList<Long> set = messagesIdsForConfirmation.get(sessionId);
+        if (set == null) {
+            set = new ArrayList<Long>();
+            messagesIdsForConfirmation.put(sessionId, set);
+        }
+        set.add(messageId);
+        confirmationConnections.put(sessionId, connection);
+
+        if (set.size() >= maxPendingConfirmations) {
+            flushConfirmations(sessionId);
+        } else if (confirmationFlushScheduled.add(sessionId)) {
+            Utilities.stageQueue.postRunnable(new Runnable() {
+                @Override
+                public void run() {
+                    confirmationFlushScheduled.remove(sessionId);
+                    flushConfirmations(sessionId);
+                }
+            }, confirmationDelay);
+        }
+    }
+
+    void flushConfirmations(long sessionId) {
+        ArrayList<Long> set = messagesIdsForConfirmation.get(sessionId);
+        TcpConnection connection = confirmationConnections.get(sessionId);
+        if (set == null || set.size() == 0 || connection == null) {
+            return;
+        }
+        proceedToSendingMessages(null, sessionId, connection, false, false);
+    }
+
     void proceedToSendingMessages(ArrayList<NetworkMessage> messageList, long sessionId, TcpConnection connection, boolean reportAck, boolean requestShortTimeout) {
         if (sessionId == 0) {
             return;
@@ -1171,7 +1462,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
 
                 messages.add(networkMessage);
             } else {
-                if (DEBUG_VERSION) {
+                if (BuildVars.DEBUG_VERSION) {
                     Log.e("tmessages", "***** Couldn't serialize ");
                 }
             }
@@ -1188,12 +1479,13 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         }
 
         if (connection == null) {
-            if (DEBUG_VERSION) {
+            if (BuildVars.DEBUG_VERSION) {
                 Log.e("tmessages", String.format("***** Transport for session 0x%x not found", sessionId));
             }
             return;
         }
 
+        messagesToSend = prioritizedMessages(messagesToSend);
         ArrayList<NetworkMessage> currentMessages = new ArrayList<NetworkMessage>();
 
         int currentSize = 0;
@@ -1208,7 +1500,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             // || currentMessages.size() == 5
             if (currentSize >= 3 * 1024 || a == messagesToSend.size() - 1) {
                 ArrayList<Integer> quickAckId = new ArrayList<Integer>();
-                byte[] transportData = createConnectionData(currentMessages, sessionId, quickAckId, connection);
+                SerializedData transportData = createConnectionData(currentMessages, sessionId, quickAckId, connection);
 
                 if (transportData != null) {
                     if (reportAck && quickAckId.size() != 0)
@@ -1232,9 +1524,9 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                         }
                     }
 
-                    connection.sendData(transportData, reportAck, requestShortTimeout);
+                    connection.sendFrame(transportData, reportAck, requestShortTimeout);
                 } else {
-                    if (DEBUG_VERSION) {
+                    if (BuildVars.DEBUG_VERSION) {
                         Log.e("tmessages", "***** Transport data is nil");
                     }
                 }
@@ -1245,7 +1537,10 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         }
     }
 
-    byte[] createConnectionData(ArrayList<NetworkMessage> messages, long sessionId, ArrayList<Integer> quickAckId, TcpConnection connection) {
+    /**
+     * Serializes the messages straight into a transport frame and encrypts it in place.
+     */
+    SerializedData createConnectionData(ArrayList<NetworkMessage> messages, long sessionId, ArrayList<Integer> quickAckId, TcpConnection connection) {
         Datacenter datacenter = datacenterWithId(connection.datacenterId);
         if (datacenter.authKey == null) {
             return null;
@@ -1254,12 +1549,13 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         long messageId;
         TLObject messageBody;
         int messageSeqNo;
+        int messageBodySize;
 
         if (messages.size() == 1) {
             NetworkMessage networkMessage = messages.get(0);
             TLRPC.TL_protoMessage message = networkMessage.protoMessage;
 
-            if (DEBUG_VERSION) {
+            if (BuildVars.DEBUG_VERSION) {
                 Log.d("tmessages", sessionId + ":Send message " + datacenter.datacenterId + "> Send message (" + message.seqno + ", " + message.msg_id + "): " + message.body);
             }
 
@@ -1267,7 +1563,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             long currentTime = System.currentTimeMillis() + ((long)timeDifference) * 1000;
 
             if (msg_time < currentTime - 30000 || msg_time > currentTime + 25000) {
-                if (DEBUG_VERSION) {
+                if (BuildVars.DEBUG_VERSION) {
                     Log.d("tmessages", "wrap in messages continaer");
                 }
                 TLRPC.TL_msg_container messageContainer = new TLRPC.TL_msg_container();
@@ -1277,20 +1573,24 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 messageId = generateMessageId();
                 messageBody = messageContainer;
                 messageSeqNo = generateMessageSeqNo(sessionId, false);
+                messageBodySize = 8 + 16 + message.bytes;
             } else {
                 messageId = message.msg_id;
                 messageBody = message.body;
                 messageSeqNo = message.seqno;
+                messageBodySize = message.bytes;
             }
         } else {
             TLRPC.TL_msg_container messageContainer = new TLRPC.TL_msg_container();
 
             ArrayList<TLRPC.TL_protoMessage> containerMessages = new ArrayList<TLRPC.TL_protoMessage>(messages.size());
 
+            messageBodySize = 8;
             for (NetworkMessage networkMessage : messages) {
                 TLRPC.TL_protoMessage message = networkMessage.protoMessage;
                 containerMessages.add(message);
-                if (DEBUG_VERSION) {
+                messageBodySize += 16 + message.bytes;
+                if (BuildVars.DEBUG_VERSION) {
                     Log.d("tmessages", sessionId + ":DC" + datacenter.datacenterId + "> Send message (" + message.seqno + ", " + message.msg_id + "): " + message.body);
                 }
             }
@@ -1302,59 +1602,30 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             messageSeqNo = generateMessageSeqNo(sessionId, false);
         }
 
-        SerializedData innerMessageOs = new SerializedData();
-        messageBody.serializeToStream(innerMessageOs);
-        byte[] messageData = innerMessageOs.toByteArray();
-
-        SerializedData innerOs = new SerializedData();
-        long serverSalt = datacenter.selectServerSalt(getCurrentTime());
-        if (serverSalt == 0) {
-            innerOs.writeInt64(0);
-        } else {
-            innerOs.writeInt64(serverSalt);
+        int currentTime = getCurrentTime();
+        long serverSalt = datacenter.selectServerSalt(currentTime);
+        if (datacenter.needsSaltRefill(currentTime)) {
+            refillSaltSet(datacenter);
         }
-        innerOs.writeInt64(sessionId);
-        innerOs.writeInt64(messageId);
-        innerOs.writeInt32(messageSeqNo);
-        innerOs.writeInt32(messageData.length);
-        innerOs.writeRaw(messageData);
-        byte[] innerData = innerOs.toByteArray();
-
-        byte[] messageKeyFull = Utilities.computeSHA1(innerData);
-        byte[] messageKey = new byte[16];
-        System.arraycopy(messageKeyFull, messageKeyFull.length - 16, messageKey, 0, 16);
+        SerializedData frame = MessageFrames.obtainMessageFrame(datacenter.authKeyId, serverSalt, sessionId, messageId, messageSeqNo, messageBodySize);
+        messageBody.serializeToStream(frame);
 
+        int quickAck = MessageFrames.encryptMessageFrame(frame, datacenter.getKeyDeriver(), Utilities.cryptoProvider, sendMessageKeyFull, sendKeyData);
         if (quickAckId != null) {
-            SerializedData data = new SerializedData(messageKeyFull);
-            quickAckId.add(data.readInt32() & 0x7fffffff);
-        }
-
-        MessageKeyData keyData = Utilities.generateMessageKeyData(datacenter.authKey, messageKey, false);
-
-        SerializedData dataForEncryption = new SerializedData();
-        dataForEncryption.writeRaw(innerData);
-        while (dataForEncryption.length() % 16 != 0) {
-            dataForEncryption.writeByte(0);
+            quickAckId.add(quickAck);
         }
 
-        byte[] encryptedData = Utilities.aesIgeEncryption(dataForEncryption.toByteArray(), keyData.aesKey, keyData.aesIv, true, false);
-
-        SerializedData data = new SerializedData();
-        data.writeRaw(datacenter.authKeyId);
-        data.writeRaw(messageKey);
-        data.writeRaw(encryptedData);
-
-        return data.toByteArray();
+        return frame;
     }
 
     void refillSaltSet(final Datacenter datacenter) {
-        for (RPCRequest request : requestQueue) {
+        for (RPCRequest request : requests.queued()) {
             if (request.rawRequest instanceof TLRPC.TL_get_future_salts) {
                 return;
             }
         }
 
-        for (RPCRequest request : runningRequests) {
+        for (RPCRequest request : requests.running()) {
             if (request.rawRequest instanceof TLRPC.TL_get_future_salts) {
                 return;
             }
@@ -1380,10 +1651,9 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         Utilities.stageQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                for (RPCRequest request : runningRequests) {
-                    if (requestMsgId == request.runningMessageId) {
-                        request.confirmed = true;
-                    }
+                RPCRequest request = requests.getRunningWithMessageId(requestMsgId);
+                if (request != null && request.runningMessageId == requestMsgId) {
+                    request.confirmed = true;
                 }
             }
         });
@@ -1393,13 +1663,9 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         Utilities.stageQueue.postRunnable(new Runnable() {
             @Override
             public void run() {
-                for (int i = 0; i < runningRequests.size(); i++) {
-                    RPCRequest request = runningRequests.get(i);
+                RPCRequest request = requests.removeRunningWithMessageId(requestMsgId);
+                if (request != null) {
                     removeRequestInClass(request.token);
-                    if (request.respondsToMessageId(requestMsgId)) {
-                        runningRequests.remove(i);
-                        i--;
-                    }
                 }
             }
         });
@@ -1407,7 +1673,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
 
     void processMessage(TLObject message, long messageId, int messageSeqNo, long messageSalt, TcpConnection connection, long sessionId, long innerMsgId, long containerMessageId) {
         if (message == null) {
-            if (DEBUG_VERSION) {
+            if (BuildVars.DEBUG_VERSION) {
                 Log.e("tmessages", "message is null");
             }
             return;
@@ -1422,7 +1688,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 processedSessionChanges.put(sessionId, arr);
             }
             if (!arr.contains(newSession.unique_id)) {
-                if (DEBUG_VERSION) {
+                if (BuildVars.DEBUG_VERSION) {
                     Log.d("tmessages", "New session:");
                     Log.d("tmessages", String.format("    first message id: %d", newSession.first_msg_id));
                     Log.d("tmessages", String.format("    server salt: %d", newSession.server_salt));
@@ -1437,10 +1703,10 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 serverSaltDesc.value = serverSalt;
                 datacenter.addServerSalt(serverSaltDesc);
 
-                for (RPCRequest request : runningRequests) {
+                for (RPCRequest request : requests.running()) {
                     Datacenter dcenter = datacenterWithId(request.runningDatacenterId);
-                    if (request.runningMessageId < newSession.first_msg_id && (request.flags & connection.transportRequestClass) != 0 && dcenter != null && dcenter.datacenterId == datacenter.datacenterId) {
-                        request.runningMessageId = 0;
+                    if (request.runningMessageId < newSession.first_msg_id && (request.flags & connection.transportRequestClass) != 0 && dcenter != null && dcenter.datacenterId == datacenter.datacenterId && (request.transportConnection == null || request.transportConnection == connection)) {
+                        requests.setRunningMessageId(request, 0);
                         request.runningMessageSeqNo = 0;
                         request.runningStartTime = 0;
                         request.runningMinStartTime = 0;
@@ -1465,12 +1731,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             for (TLRPC.TL_protoMessage innerMessage : messageContainer.messages) {
                 long innerMessageId = innerMessage.msg_id;
                 if (innerMessage.seqno % 2 != 0) {
-                    ArrayList<Long> set = messagesIdsForConfirmation.get(sessionId);
-                    if (set == null) {
-                        set = new ArrayList<Long>();
-                        messagesIdsForConfirmation.put(sessionId, set);
-                    }
-                    set.add(innerMessageId);
+                    confirmMessage(sessionId, connection, innerMessageId);
                 }
                 if (isMessageIdProcessed(sessionId, innerMessageId)) {
                     continue;
@@ -1485,8 +1746,11 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             ArrayList<Long> itemsToDelete = new ArrayList<Long>();
             for (Long pid : pingIdToDate.keySet()) {
                 if (pid == pingId) {
-                    int time = pingIdToDate.get(pid);
-                    int pingTime = (int)(System.currentTimeMillis() / 1000) - time;
+                    long pingMillis = System.currentTimeMillis() - pingIdToDate.get(pid);
+                    int pingTime = (int)(pingMillis / 1000);
+                    if (connection != null && pingMillis >= 0 && pingMillis < 10000) {
+                        connection.rtt.addSample((int)pingMillis);
+                    }
 
                     if (Math.abs(pingTime) < 10) {
                         currentPingTime = (pingTime + currentPingTime) / 2;
@@ -1508,17 +1772,14 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         } else if (message instanceof TLRPC.TL_futuresalts) {
             TLRPC.TL_futuresalts futureSalts = (TLRPC.TL_futuresalts)message;
             long requestMid = futureSalts.req_msg_id;
-            for (RPCRequest request : runningRequests) {
-                if (request.respondsToMessageId(requestMid)) {
-                    if (request.completionBlock != null) {
-                        request.completionBlock.run(futureSalts, null);
-                    }
-
-                    messagesConfirmed(requestMid);
-                    rpcCompleted(requestMid);
-
-                    break;
+            RPCRequest request = requests.getRunningWithMessageId(requestMid);
+            if (request != null) {
+                if (request.completionBlock != null) {
+                    request.completionBlock.run(futureSalts, null);
                 }
+
+                messagesConfirmed(requestMid);
+                rpcCompleted(requestMid);
             }
         } else if (message instanceof TLRPC.DestroySessionRes) {
             TLRPC.DestroySessionRes res = (TLRPC.DestroySessionRes)message;
@@ -1528,7 +1789,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             for (long session : lst) {
                 if (session == res.session_id) {
                     sessionsToDestroy.remove(session);
-                    if (DEBUG_VERSION) {
+                    if (BuildVars.DEBUG_VERSION) {
                         Log.d("tmessages", String.format("Destroyed session %d (%s)", res.session_id, res instanceof TLRPC.TL_destroy_session_ok ? "ok" : "not found"));
                     }
                     break;
@@ -1539,12 +1800,12 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             long resultMid = resultContainer.req_msg_id;
 
             boolean ignoreResult = false;
-            if (DEBUG_VERSION) {
+            if (BuildVars.DEBUG_VERSION) {
                 Log.d("tmessages", "object in rpc_result is " + resultContainer.result);
             }
             if (resultContainer.result instanceof TLRPC.RpcError) {
                 String errorMessage = ((TLRPC.RpcError)resultContainer.result).error_message;
-                if (DEBUG_VERSION) {
+                if (BuildVars.DEBUG_VERSION) {
                     Log.e("tmessages", String.format("***** RPC error %d: %s", ((TLRPC.RpcError)resultContainer.result).error_code, errorMessage));
                 }
 
@@ -1589,132 +1850,134 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             if (!ignoreResult) {
                 boolean found = false;
 
-                for (RPCRequest request : runningRequests) {
-                    if (request.respondsToMessageId(resultMid)) {
-                        found = true;
-
-                        boolean discardResponse = false;
-                        if (request.completionBlock != null) {
-                            TLRPC.TL_error implicitError = null;
-                            if (resultContainer.result instanceof TLRPC.TL_gzip_packed) {
-                                TLRPC.TL_gzip_packed packet = (TLRPC.TL_gzip_packed)resultContainer.result;
-                                TLObject uncomressed = Utilities.decompress(packet.packed_data, request.rawRequest);
-                                if (uncomressed == null) {
-                                    uncomressed = Utilities.decompress(packet.packed_data, request.rawRequest);
-                                }
-                                if (uncomressed == null) {
-                                    throw new RuntimeException("failed to decomress responce for " + request.rawRequest);
-                                }
-                                resultContainer.result = uncomressed;
+                RPCRequest request = requests.getRunningWithMessageId(resultMid);
+                if (request != null) {
+                    found = true;
+                    if (connection != null && (connection.transportRequestClass & RPCRequest.RPCRequestClassGeneric) != 0) {
+                        addRttSample(request, connection);
+                    }
+                    request.runningSendTime = 0;
+
+                    boolean discardResponse = false;
+                    if (request.completionBlock != null) {
+                        TLRPC.TL_error implicitError = null;
+                        if (resultContainer.result instanceof TLRPC.TL_gzip_packed) {
+                            TLRPC.TL_gzip_packed packet = (TLRPC.TL_gzip_packed)resultContainer.result;
+                            TLObject uncomressed = Utilities.decompress(packet.packed_data, request.rawRequest);
+                            if (uncomressed == null) {
+                                uncomressed = Utilities.decompress(packet.packed_data, request.rawRequest);
+                            }
+                            if (uncomressed == null) {
+                                throw new RuntimeException("failed to decomress responce for " + request.rawRequest);
+                            }
+                            resultContainer.result = uncomressed;
+                        }
+                        if (resultContainer.result instanceof TLRPC.RpcError) {
+                            String errorMessage = ((TLRPC.RpcError) resultContainer.result).error_message;
+                            if (BuildVars.DEBUG_VERSION) {
+                                Log.e("tmessages", String.format("***** RPC error %d: %s", ((TLRPC.RpcError) resultContainer.result).error_code, errorMessage));
                             }
-                            if (resultContainer.result instanceof TLRPC.RpcError) {
-                                String errorMessage = ((TLRPC.RpcError) resultContainer.result).error_message;
-                                if (DEBUG_VERSION) {
-                                    Log.e("tmessages", String.format("***** RPC error %d: %s", ((TLRPC.RpcError) resultContainer.result).error_code, errorMessage));
-                                }
 
-                                int errorCode = ((TLRPC.RpcError) resultContainer.result).error_code;
+                            int errorCode = ((TLRPC.RpcError) resultContainer.result).error_code;
 
-                                if (errorCode == 500 || errorCode < 0) {
-                                    if ((request.flags & RPCRequest.RPCRequestClassFailOnServerErrors) != 0) {
-                                        if (request.serverFailureCount < 1) {
-                                            discardResponse = true;
-                                            request.runningMinStartTime = request.runningStartTime + 1;
-                                            request.serverFailureCount++;
-                                        }
-                                    } else {
+                            if (errorCode == 500 || errorCode < 0) {
+                                if ((request.flags & RPCRequest.RPCRequestClassFailOnServerErrors) != 0) {
+                                    if (request.serverFailureCount < 1) {
                                         discardResponse = true;
                                         request.runningMinStartTime = request.runningStartTime + 1;
-                                        request.confirmed = false;
+                                        request.serverFailureCount++;
                                     }
-                                } else if (errorCode == 420) {
-                                    if ((request.flags & RPCRequest.RPCRequestClassFailOnServerErrors) == 0) {
-                                        double waitTime = 2.0;
-
-                                        if (errorMessage.contains("FLOOD_WAIT_")) {
-                                            String errorMsg = errorMessage.replace("FLOOD_WAIT_", "");
-                                            Scanner scanner = new Scanner(errorMsg);
-                                            scanner.useDelimiter("");
-                                            Integer val;
-                                            try {
-                                                val = scanner.nextInt();
-                                            } catch (Exception e) {
-                                                val = null;
-                                            }
-                                            if (val != null) {
-                                                waitTime = val;
-                                            }
+                                } else {
+                                    discardResponse = true;
+                                    request.runningMinStartTime = request.runningStartTime + 1;
+                                    request.confirmed = false;
+                                }
+                            } else if (errorCode == 420) {
+                                if ((request.flags & RPCRequest.RPCRequestClassFailOnServerErrors) == 0) {
+                                    double waitTime = 2.0;
+
+                                    if (errorMessage.contains("FLOOD_WAIT_")) {
+                                        String errorMsg = errorMessage.replace("FLOOD_WAIT_", "");
+                                        Scanner scanner = new Scanner(errorMsg);
+                                        scanner.useDelimiter("");
+                                        Integer val;
+                                        try {
+                                            val = scanner.nextInt();
+                                        } catch (Exception e) {
+                                            val = null;
                                         }
+                                        if (val != null) {
+                                            waitTime = val;
+                                        }
+                                    }
 
-                                        waitTime = Math.min(30, waitTime);
+                                    waitTime = Math.min(30, waitTime);
 
-                                        discardResponse = true;
-                                        request.runningMinStartTime = (int)(System.currentTimeMillis() / 1000 + waitTime);
-                                        request.confirmed = false;
-                                    }
+                                    discardResponse = true;
+                                    request.runningMinStartTime = (int)(System.currentTimeMillis() / 1000 + waitTime);
+                                    request.confirmed = false;
                                 }
+                            }
 
-                                implicitError = new TLRPC.TL_error();
-                                implicitError.code = ((TLRPC.RpcError)resultContainer.result).error_code;
-                                implicitError.text = ((TLRPC.RpcError)resultContainer.result).error_message;
-                            } else if (!(resultContainer.result instanceof TLRPC.TL_error)) {
-                                if (request.rawRequest == null || !request.rawRequest.responseClass().isAssignableFrom(resultContainer.result.getClass())) {
-                                    if (DEBUG_VERSION) {
-                                        if (request.rawRequest == null) {
-                                            Log.e("tmessages", "rawRequest is null");
-                                        } else {
-                                            Log.e("tmessages", "***** RPC error: invalid response class " + resultContainer.result + " (" + request.rawRequest.responseClass() + " expected)");
-                                        }
+                            implicitError = new TLRPC.TL_error();
+                            implicitError.code = ((TLRPC.RpcError)resultContainer.result).error_code;
+                            implicitError.text = ((TLRPC.RpcError)resultContainer.result).error_message;
+                        } else if (!(resultContainer.result instanceof TLRPC.TL_error)) {
+                            if (request.rawRequest == null || !request.rawRequest.responseClass().isAssignableFrom(resultContainer.result.getClass())) {
+                                if (BuildVars.DEBUG_VERSION) {
+                                    if (request.rawRequest == null) {
+                                        Log.e("tmessages", "rawRequest is null");
+                                    } else {
+                                        Log.e("tmessages", "***** RPC error: invalid response class " + resultContainer.result + " (" + request.rawRequest.responseClass() + " expected)");
                                     }
-                                    implicitError = new TLRPC.TL_error();
-                                    implicitError.code = -1000;
                                 }
+                                implicitError = new TLRPC.TL_error();
+                                implicitError.code = -1000;
                             }
+                        }
 
-                            if (!discardResponse) {
-                                if (implicitError != null || resultContainer.result instanceof TLRPC.TL_error) {
-                                    request.completionBlock.run(null, implicitError != null ? implicitError : (TLRPC.TL_error) resultContainer.result);
-                                } else {
-                                    request.completionBlock.run(resultContainer.result, null);
-                                }
+                        if (!discardResponse) {
+                            if (implicitError != null || resultContainer.result instanceof TLRPC.TL_error) {
+                                request.completionBlock.run(null, implicitError != null ? implicitError : (TLRPC.TL_error) resultContainer.result);
+                            } else {
+                                request.completionBlock.run(resultContainer.result, null);
                             }
+                        }
 
-                            if (implicitError != null && implicitError.code == 401) {
-                                if (datacenter.datacenterId == currentDatacenterId || datacenter.datacenterId == movingToDatacenterId) {
-                                    if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
-                                        Utilities.RunOnUIThread(new Runnable() {
-                                            @Override
-                                            public void run() {
-                                                NotificationCenter.Instance.postNotificationName(1234);
-                                                UserConfig.clearConfig();
-                                            }
-                                        });
-                                    }
-                                } else {
-                                    datacenter.authorized = false;
-                                    saveSession();
-                                    discardResponse = true;
-                                    if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0 || (request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
-                                        retryRequestsFromDatacenter = datacenter.datacenterId;
-                                        retryRequestsClass = request.flags;
-                                    }
+                        if (implicitError != null && implicitError.code == 401) {
+                            if (datacenter.datacenterId == currentDatacenterId || datacenter.datacenterId == movingToDatacenterId) {
+                                if ((request.flags & RPCRequest.RPCRequestClassGeneric) != 0) {
+                                    Utilities.RunOnUIThread(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            NotificationCenter.Instance.postNotificationName(1234);
+                                            UserConfig.clearConfig();
+                                        }
+                                    });
+                                }
+                            } else {
+                                datacenter.authorized = false;
+                                saveSession();
+                                discardResponse = true;
+                                if ((request.flags & RPCRequest.RPCRequestClassDownloadMedia) != 0 || (request.flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
+                                    retryRequestsFromDatacenter = datacenter.datacenterId;
+                                    retryRequestsClass = request.flags;
                                 }
                             }
                         }
+                    }
 
-                        if (!discardResponse) {
-                            rpcCompleted(resultMid);
-                        } else {
-                            request.runningMessageId = 0;
-                            request.runningMessageSeqNo = 0;
-                            request.transportChannelToken = 0;
-                        }
-                        break;
+                    if (!discardResponse) {
+                        rpcCompleted(resultMid);
+                    } else {
+                        requests.setRunningMessageId(request, 0);
+                        request.runningMessageSeqNo = 0;
+                        request.transportChannelToken = 0;
                     }
                 }
 
                 if (!found) {
-                    if (DEBUG_VERSION) {
+                    if (BuildVars.DEBUG_VERSION) {
                         Log.d("tmessages", "Response received, but request wasn't found.");
                     }
                     rpcCompleted(resultMid);
@@ -1735,7 +1998,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         } else if (message instanceof TLRPC.TL_bad_msg_notification) {
             TLRPC.TL_bad_msg_notification badMsgNotification = (TLRPC.TL_bad_msg_notification)message;
 
-            if (DEBUG_VERSION) {
+            if (BuildVars.DEBUG_VERSION) {
                 Log.e("tmessages", String.format("***** Bad message: %d", badMsgNotification.error_code));
             }
             if (badMsgNotification.error_code == 16 || badMsgNotification.error_code == 17 || badMsgNotification.error_code == 19 || badMsgNotification.error_code == 32 || badMsgNotification.error_code == 33 || badMsgNotification.error_code == 64) {
@@ -1765,6 +2028,10 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 lastOutgoingMessageId = Math.max(messageId, lastOutgoingMessageId);
             }
 
+            datacenter.badServerSaltCount++;
+            if (BuildVars.DEBUG_VERSION) {
+                Log.e("tmessages", "bad server salt for datacenter " + datacenter.datacenterId + ", " + datacenter.badServerSaltCount + " so far");
+            }
             datacenter.clearServerSalts();
 
             ServerSalt serverSaltDesc = new ServerSalt();
@@ -1786,11 +2053,8 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
 
             if (detailedInfo instanceof TLRPC.TL_msg_detailed_info) {
                 long requestMid = ((TLRPC.TL_msg_detailed_info)detailedInfo).msg_id;
-                for (RPCRequest request : runningRequests) {
-                    if (request.respondsToMessageId(requestMid)) {
-                        requestResend = true;
-                        break;
-                    }
+                if (requests.getRunningWithMessageId(requestMid) != null) {
+                    requestResend = true;
                 }
             } else {
                 if (!isMessageIdProcessed(sessionId, messageId)) {
@@ -1809,12 +2073,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 arr.add(networkMessage);
                 sendMessagesToTransport(arr, connection, sessionId, false, true);
             } else {
-                ArrayList<Long> set = messagesIdsForConfirmation.get(sessionId);
-                if (set == null) {
-                    set = new ArrayList<Long>();
-                    messagesIdsForConfirmation.put(sessionId, set);
-                }
-                set.add(detailedInfo.answer_msg_id);
+                confirmMessage(sessionId, connection, detailedInfo.answer_msg_id);
             }
         } else if (message instanceof TLRPC.TL_gzip_packed) {
             TLRPC.TL_gzip_packed packet = (TLRPC.TL_gzip_packed)message;
@@ -1823,7 +2082,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         } else if (message instanceof TLRPC.Updates) {
             MessagesController.Instance.processUpdates((TLRPC.Updates)message);
         } else {
-            if (DEBUG_VERSION) {
+            if (BuildVars.DEBUG_VERSION) {
                 Log.e("tmessages", "***** Error: unknown message class " + message);
             }
         }
@@ -1838,7 +2097,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
     }
 
     static long nextPingId = 0;
-    byte[] generatePingData(Datacenter datacenter, boolean recordTime) {
+    SerializedData generatePingData(Datacenter datacenter, boolean recordTime) {
         long sessionId = datacenter.authSessionId;
         if (sessionId == 0) {
             return null;
@@ -1848,7 +2107,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         ping.ping_id = nextPingId++;
 
         if (recordTime && sessionId == datacenter.authSessionId) {
-            pingIdToDate.put(ping.ping_id, (int)(System.currentTimeMillis() / 1000));
+            pingIdToDate.put(ping.ping_id, System.currentTimeMillis());
         }
 
         NetworkMessage networkMessage = new NetworkMessage();
@@ -1864,9 +2123,9 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             return;
         }
 
-        byte[] transportData = generatePingData(datacenter, true);
+        SerializedData transportData = generatePingData(datacenter, true);
         if (transportData != null) {
-            datacenter.connection.sendData(transportData, false, true);
+            datacenter.connection.sendFrame(transportData, false, true);
         }
     }
 
@@ -1918,11 +2177,18 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
     public void tcpConnectionQuiackAckReceived(TcpConnection connection, int ack) {
         ArrayList<Long> arr = quickAckIdToRequestIds.get(ack);
         if (arr != null) {
-            for (RPCRequest request : runningRequests) {
-                if (arr.contains(request.token)) {
-                    if (request.quickAckBlock != null) {
-                        request.quickAckBlock.quickAck();
+            boolean sampled = false;
+            for (Long token : arr) {
+                RPCRequest request = requests.getRunning(token);
+                if (request != null && request.runningSendTime != 0) {
+                    if (!sampled) {
+                        addRttSample(request, connection);
+                        sampled = true;
                     }
+                    request.runningSendTime = 0;
+                }
+                if (request != null && request.quickAckBlock != null) {
+                    request.quickAckBlock.quickAck();
                 }
             }
             quickAckIdToRequestIds.remove(ack);
@@ -1945,7 +2211,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
     }
 
     @Override
-    public void tcpConnectionReceivedData(TcpConnection connection, byte[] data) {
+    public void tcpConnectionReceivedData(TcpConnection connection, ByteBuffer data) {
         if (connection.datacenterId == currentDatacenterId && (connection.transportRequestClass & RPCRequest.RPCRequestClassGeneric) != 0) {
             if (connectionState == 1 || connectionState == 2) {
                 connectionState = 3;
@@ -1962,9 +2228,8 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
 
         SerializedData is = new SerializedData(data);
 
-        byte[] keyId = is.readData(8);
-        SerializedData keyIdData = new SerializedData(keyId);
-        if (keyIdData.readInt64() == 0) {
+        long keyId = is.readInt64();
+        if (keyId == 0) {
             long messageId = is.readInt64();
             if (isMessageIdProcessed(0, messageId)) {
                 finishUpdatingState(connection);
@@ -1983,25 +2248,34 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 addProcessedMessageId(0, messageId);
             }
         } else {
-            if (datacenter.authKeyId == null || !Arrays.equals(keyId, datacenter.authKeyId)) {
-                if (DEBUG_VERSION) {
+            if (datacenter.authKeyId == null || keyId != Utilities.bytesToLong(datacenter.authKeyId)) {
+                if (BuildVars.DEBUG_VERSION) {
                     Log.e("tmessages", "Error: invalid auth key id " + connection);
                 }
                 return;
             }
 
-            byte[] messageKey = is.readData(16);
-            MessageKeyData keyData = Utilities.generateMessageKeyData(datacenter.authKey, messageKey, true);
+            // 16 bytes of message key after the key id, then whole aes blocks holding at least the inner header
+            int encryptedLength = is.length() - 16;
+            if (encryptedLength < 32 || encryptedLength % 16 != 0) {
+                if (BuildVars.DEBUG_VERSION) {
+                    Log.e("tmessages", "Error: invalid encrypted message length " + encryptedLength + " " + connection);
+                }
+                return;
+            }
+
+            is.readRaw(receiveMessageKey);
+            datacenter.getKeyDeriver().derive(receiveMessageKey, true, receiveKeyData);
 
-            byte[] messageData = is.readData(data.length - 24);
-            messageData = Utilities.aesIgeEncryption(messageData, keyData.aesKey, keyData.aesIv, false, false);
+            ByteBuffer messageData = is.readBuffer(is.length());
+            Utilities.aesIgeEncryption(messageData, receiveKeyData.aesKey, receiveKeyData.aesIv, false, false);
 
             SerializedData messageIs = new SerializedData(messageData);
             long messageServerSalt = messageIs.readInt64();
             long messageSessionId = messageIs.readInt64();
 
-            if (messageSessionId != datacenter.authSessionId && messageSessionId != datacenter.authDownloadSessionId && messageSessionId != datacenter.authUploadSessionId) {
-                if (DEBUG_VERSION) {
+            if (!datacenter.isConnectionSession(messageSessionId)) {
+                if (BuildVars.DEBUG_VERSION) {
                     Log.e("tmessages", String.format("***** Error: invalid message session ID (%d instead of %d)", messageSessionId, datacenter.authSessionId));
                 }
                 finishUpdatingState(connection);
@@ -2018,12 +2292,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
             }
 
             if (messageSeqNo % 2 != 0) {
-                ArrayList<Long> set = messagesIdsForConfirmation.get(messageSessionId);
-                if (set == null) {
-                    set = new ArrayList<Long>();
-                    messagesIdsForConfirmation.put(messageSessionId, set);
-                }
-                set.add(messageId);
+                confirmMessage(messageSessionId, connection, messageId);
             }
 
             if (!doNotProcess) {
@@ -2033,7 +2302,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 TLObject message = TLClassStore.Instance().TLdeserialize(messageIs, constructor, getRequestWithMessageId(messageId));
 
                 if (message == null) {
-                    if (DEBUG_VERSION) {
+                    if (BuildVars.DEBUG_VERSION) {
                         Log.e("tmessages", "***** Error parsing message: " + constructor);
                     }
                 } else {
@@ -2048,11 +2317,11 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
         }
     }
 
+    @Override
     public TLObject getRequestWithMessageId(long msgId) {
-        for (RPCRequest request : runningRequests) {
-            if (msgId == request.runningMessageId) {
-                return request.rawRequest;
-            }
+        RPCRequest request = requests.getRunningWithMessageId(msgId);
+        if (request != null) {
+            return request.rawRequest;
         }
         return null;
     }
@@ -2213,6 +2482,7 @@ public class ConnectionsManager implements Action.ActionDelegate, TcpConnection.
                 }
                 saveSession();
 
+                handshakeAllDatacenters();
                 processRequestQueue(RPCRequest.RPCRequestClassTransportMask, eactor.datacenterId);
             }
         } else if (action instanceof ExportAuthorizationAction) {
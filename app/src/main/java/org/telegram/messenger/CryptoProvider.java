@@ -0,0 +1,30 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.messenger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * AES-256-IGE as used by MTProto. Data is encrypted or decrypted in place, its length must be
+ * a multiple of 16. The 32 byte iv holds the previous cipher block followed by the previous
+ * plain block; with changeIv it is updated so the next call continues the chain.
+ */
+public interface CryptoProvider {
+    void aesIge(byte[] data, int offset, int length, byte[] key, byte[] iv, boolean encrypt, boolean changeIv);
+
+    /**
+     * Processes the bytes between position and limit of the buffer, neither is changed.
+     */
+    void aesIge(ByteBuffer buffer, byte[] key, byte[] iv, boolean encrypt, boolean changeIv);
+
+    /**
+     * Returns a non trivial divisor of the pq sent by the server in a handshake, or 0.
+     */
+    long factorizePQ(long pq);
+}
@@ -15,6 +15,7 @@ import org.telegram.TL.TLRPC;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 
 public class Datacenter {
     public int datacenterId;
@@ -22,16 +23,33 @@ public class Datacenter {
     public int port;
     public boolean authorized;
     public long authSessionId;
-    public long authDownloadSessionId;
-    public long authUploadSessionId;
     public byte[] authKey;
     public byte[] authKeyId;
 
+    /**
+     * Sizes of the download and upload connection pools, every pooled connection has its own session.
+     */
+    public static int downloadConnectionsCount = 2;
+    public static int uploadConnectionsCount = 2;
+
     public TcpConnection connection;
-    public TcpConnection downloadConnection;
-    public TcpConnection uploadConnection;
+    public TcpConnection[] downloadConnections = new TcpConnection[downloadConnectionsCount];
+    public long[] authDownloadSessionIds = new long[downloadConnectionsCount];
+    public TcpConnection[] uploadConnections = new TcpConnection[uploadConnectionsCount];
+    public long[] authUploadSessionIds = new long[uploadConnectionsCount];
+
+    /**
+     * Future salts are asked for once the last known salt expires within this many seconds.
+     */
+    public static int saltPrefetchTime = 60 * 60;
+
+    public int badServerSaltCount;
 
     private ArrayList<ServerSalt> authServerSaltSet = new ArrayList<ServerSalt>();
+    private ServerSalt currentSalt;
+    private int saltRefillDate;
+    private int saltRetryDate;
+    private MessageKeyDeriver keyDeriver;
 
     public Datacenter() {
         authServerSaltSet = new ArrayList<ServerSalt>();
@@ -66,6 +84,26 @@ public class Datacenter {
         }
     }
 
+    /**
+     * True for the generic session and the sessions of the pooled media connections.
+     */
+    public boolean isConnectionSession(long sessionId) {
+        if (sessionId == authSessionId) {
+            return true;
+        }
+        for (long id : authDownloadSessionIds) {
+            if (id != 0 && id == sessionId) {
+                return true;
+            }
+        }
+        for (long id : authUploadSessionIds) {
+            if (id != 0 && id == sessionId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void SerializeToStream(SerializedData stream) {
         stream.writeInt32(datacenterId);
         stream.writeString(address);
@@ -91,51 +129,92 @@ public class Datacenter {
         }
     }
 
+    /**
+     * Returns the key deriver for the current authKey, a new one is made when the key changes.
+     */
+    public MessageKeyDeriver getKeyDeriver() {
+        if (authKey == null) {
+            return null;
+        }
+        if (keyDeriver == null || keyDeriver.getAuthKey() != authKey) {
+            keyDeriver = new MessageKeyDeriver(authKey);
+        }
+        return keyDeriver;
+    }
+
     public void clear() {
         authKey = null;
         authKeyId = null;
+        keyDeriver = null;
         authorized = false;
-        authServerSaltSet.clear();
+        clearServerSalts();
     }
 
     public void clearServerSalts() {
         authServerSaltSet.clear();
+        saltsChanged();
     }
 
-    public long selectServerSalt(int date) {
-        boolean cleanupNeeded = false;
+    private void saltsChanged() {
+        currentSalt = null;
+        saltRefillDate = 0;
+    }
 
-        long result = 0;
-        int maxRemainingInterval = 0;
+    /**
+     * Returns the salt to send with messages at date. The chosen salt is kept until it runs out or
+     * the salts change, only then the schedule is walked again and expired salts are dropped.
+     */
+    public long selectServerSalt(int date) {
+        ServerSalt salt = currentSalt;
+        if (salt != null && salt.validSince <= date && salt.validUntil > date) {
+            return salt.value;
+        }
 
-        for (ServerSalt salt : authServerSaltSet) {
-            if (salt.validUntil < date || (salt.validSince == 0 && salt.validUntil == Integer.MAX_VALUE)) {
-                cleanupNeeded = true;
-            } else if (salt.validSince <= date && salt.validUntil > date) {
-                if (maxRemainingInterval == 0 || Math.abs(salt.validUntil - date) > maxRemainingInterval) {
-                    maxRemainingInterval = Math.abs(salt.validUntil - date);
-                    result = salt.value;
-                }
+        ServerSalt result = null;
+        int maxValidUntil = 0;
+        int kept = 0;
+        for (int a = 0; a < authServerSaltSet.size(); a++) {
+            salt = authServerSaltSet.get(a);
+            if (salt.validUntil < date) {
+                continue;
             }
+            authServerSaltSet.set(kept++, salt);
+            if (salt.validSince == 0 && salt.validUntil == Integer.MAX_VALUE) {
+                continue;
+            }
+            if (salt.validSince <= date && salt.validUntil > date && (result == null || salt.validUntil > result.validUntil)) {
+                result = salt;
+            }
+            maxValidUntil = Math.max(maxValidUntil, salt.validUntil);
+        }
+        for (int a = authServerSaltSet.size() - 1; a >= kept; a--) {
+            authServerSaltSet.remove(a);
         }
 
-        if (cleanupNeeded) {
-            for (int i = 0; i < authServerSaltSet.size(); i++) {
-                ServerSalt salt = authServerSaltSet.get(i);
-                if (salt.validUntil < date) {
-                    authServerSaltSet.remove(i);
-                    i--;
-                }
-            }
+        currentSalt = result;
+        if (saltRefillDate == 0 || saltRefillDate > maxValidUntil - saltPrefetchTime) {
+            saltRefillDate = maxValidUntil - saltPrefetchTime;
         }
 
-        if (ConnectionsManager.DEBUG_VERSION) {
-            if (result == 0) {
+        if (BuildVars.DEBUG_VERSION) {
+            if (result == null) {
                 Log.e("tmessages", "Valid salt not found", null);
             }
         }
 
-        return result;
+        return result != null ? result.value : 0;
+    }
+
+    /**
+     * True once the known salts are about to run out and future salts should be asked for. Returns
+     * true at most once a minute so a lost answer is asked for again.
+     */
+    public boolean needsSaltRefill(int date) {
+        if (date < saltRefillDate || date < saltRetryDate) {
+            return false;
+        }
+        saltRetryDate = date + 60;
+        return true;
     }
 
     private class SaltComparator implements Comparator<ServerSalt> {
@@ -154,7 +233,7 @@ public class Datacenter {
         if (salts == null) {
             return;
         }
-        ArrayList<Long> existingSalts = new ArrayList<Long>(authServerSaltSet.size());
+        HashSet<Long> existingSalts = new HashSet<Long>(authServerSaltSet.size());
 
         for (ServerSalt salt : authServerSaltSet) {
             existingSalts.add(salt.value);
@@ -170,6 +249,7 @@ public class Datacenter {
             }
         }
         Collections.sort(authServerSaltSet, new SaltComparator());
+        saltsChanged();
     }
 
     public void addServerSalt(ServerSalt serverSalt) {
@@ -180,6 +260,7 @@ public class Datacenter {
         }
         authServerSaltSet.add(serverSalt);
         Collections.sort(authServerSaltSet, new SaltComparator());
+        saltsChanged();
     }
 
     boolean containsServerSalt(long value) {
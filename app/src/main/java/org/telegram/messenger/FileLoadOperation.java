@@ -20,10 +20,22 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Scanner;
 
 public class FileLoadOperation {
     private int downloadChunkSize = 1024 * 32;
+    private int maxDownloadChunkSize = 1024 * 512;
+    private static final int rangeUnitSize = 1024;
+    private static final int partBoundarySize = 1024 * 1024;
+
+    private static class RequestInfo {
+        private long requestToken;
+        private int offset;
+        private int limit;
+        private TLRPC.TL_upload_file response;
+    }
 
     public int datacenter_id;
     private TLRPC.InputFileLocation location;
@@ -46,6 +58,22 @@ public class FileLoadOperation {
     private InputStream httpConnectionStream;
     private RandomAccessFile fileOutputStream;
 
+    /**
+     * Files of more than one chunk are loaded with this many getFile requests in flight. Parts are
+     * written where they belong as they come, encrypted ones are held back until they can be
+     * decrypted in order. The downloaded prefix is kept next to the temp file to resume from it.
+     */
+    public int maxDownloadRequests = 4;
+    private boolean pipelined;
+    private int currentChunkSize;
+    private int nextDownloadOffset;
+    private int endOffset = -1;
+    private BitSet downloadedRanges;
+    private ArrayList<RequestInfo> requestInfos;
+    private ArrayList<RequestInfo> delayedRequestInfos;
+    private File cacheFileParts;
+    private RandomAccessFile partsOutputStream;
+
     public static interface FileLoadOperationDelegate {
         public abstract void didFinishLoadingFile(FileLoadOperation operation);
         public abstract void didFailedLoadingFile(FileLoadOperation operation);
@@ -215,7 +243,18 @@ public class FileLoadOperation {
             if (exist) {
                 cacheFileFinal.delete();
             }
+            pipelined = httpUrl == null && totalBytesCount > downloadChunkSize && maxDownloadRequests > 1;
             try {
+                if (pipelined) {
+                    cacheFileParts = new File(Utilities.getCacheDir(), fileNameTemp + ".parts");
+                    partsOutputStream = new RandomAccessFile(cacheFileParts, "rws");
+                    if (partsOutputStream.length() >= 4) {
+                        downloadedBytes = Math.min(downloadedBytes, partsOutputStream.readInt());
+                    }
+                    downloadedBytes = downloadedBytes / downloadChunkSize * downloadChunkSize;
+                    partsOutputStream.seek(0);
+                    partsOutputStream.writeInt(downloadedBytes);
+                }
                 fileOutputStream = new RandomAccessFile(cacheFileTemp, "rws");
                 if (downloadedBytes != 0) {
                     fileOutputStream.seek(downloadedBytes);
@@ -233,6 +272,13 @@ public class FileLoadOperation {
             }
             if (httpUrl != null) {
                 startDownloadHTTPRequest();
+            } else if (pipelined) {
+                Utilities.stageQueue.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        startPipelinedDownload();
+                    }
+                });
             } else {
                 startDownloadRequest();
             }
@@ -264,6 +310,15 @@ public class FileLoadOperation {
             if (requestToken != 0) {
                 ConnectionsManager.Instance.cancelRpc(requestToken, true);
             }
+            if (pipelined) {
+                Utilities.stageQueue.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        cancelRequests();
+                        closePartsFile(false);
+                    }
+                });
+            }
         }
         delegate.didFailedLoadingFile(FileLoadOperation.this);
     }
@@ -275,6 +330,9 @@ public class FileLoadOperation {
         state = 3;
         fileOutputStream.close();
         fileOutputStream = null;
+        if (pipelined) {
+            closePartsFile(true);
+        }
         final boolean renamed = cacheFileTemp.renameTo(cacheFileFinal);
 
         if (needBitmapCreate) {
@@ -438,7 +496,7 @@ public class FileLoadOperation {
                             return;
                         }
                         if (key != null) {
-                            res.bytes = Utilities.aesIgeEncryption(res.bytes, key, iv, false, true);
+                            Utilities.aesIgeEncryption(res.bytes, 0, res.bytes.length, key, iv, false, true);
                         }
                         if (fileOutputStream != null) {
                             fileOutputStream.write(res.bytes);
@@ -497,4 +555,213 @@ public class FileLoadOperation {
             }
         }, null, true, RPCRequest.RPCRequestClassDownloadMedia, datacenter_id);
     }
+
+    private void startPipelinedDownload() {
+        if (state != 1 || fileOutputStream == null) {
+            return;
+        }
+        requestInfos = new ArrayList<RequestInfo>(maxDownloadRequests);
+        delayedRequestInfos = new ArrayList<RequestInfo>(maxDownloadRequests);
+        downloadedRanges = new BitSet((totalBytesCount + rangeUnitSize - 1) / rangeUnitSize);
+        if (downloadedBytes != 0) {
+            downloadedRanges.set(0, downloadedBytes / rangeUnitSize);
+        }
+        nextDownloadOffset = downloadedBytes;
+        currentChunkSize = downloadChunkSize;
+        fillDownloadWindow();
+    }
+
+    private void fillDownloadWindow() {
+        while (state == 1 && requestInfos.size() + delayedRequestInfos.size() < maxDownloadRequests) {
+            int offset = nextDownloadOffset;
+            if (endOffset >= 0) {
+                if (offset >= endOffset) {
+                    break;
+                }
+            } else if (offset >= totalBytesCount && !requestInfos.isEmpty()) {
+                // past the announced size only one request at a time until a short part shows the end
+                break;
+            }
+            if (currentChunkSize < maxDownloadChunkSize && offset % (currentChunkSize * 2) == 0 && totalBytesCount - offset >= currentChunkSize * 4) {
+                currentChunkSize *= 2;
+            }
+            int limit = Math.min(currentChunkSize, partBoundarySize - offset % partBoundarySize);
+            nextDownloadOffset = offset + limit;
+
+            final RequestInfo requestInfo = new RequestInfo();
+            requestInfo.offset = offset;
+            requestInfo.limit = limit;
+            requestInfos.add(requestInfo);
+
+            TLRPC.TL_upload_getFile req = new TLRPC.TL_upload_getFile();
+            req.location = location;
+            req.offset = offset;
+            req.limit = limit;
+            requestInfo.requestToken = ConnectionsManager.Instance.performRpc(req, new RPCRequest.RPCRequestDelegate() {
+                @Override
+                public void run(TLObject response, TLRPC.TL_error error) {
+                    processPipelinedResponse(requestInfo, response, error);
+                }
+            }, null, true, RPCRequest.RPCRequestClassDownloadMedia, datacenter_id);
+        }
+    }
+
+    private void processPipelinedResponse(RequestInfo requestInfo, TLObject response, TLRPC.TL_error error) {
+        if (state != 1 || !requestInfos.remove(requestInfo)) {
+            return;
+        }
+        if (error != null) {
+            if (error.text.contains("FILE_MIGRATE_")) {
+                String errorMsg = error.text.replace("FILE_MIGRATE_", "");
+                Scanner scanner = new Scanner(errorMsg);
+                scanner.useDelimiter("");
+                Integer val;
+                try {
+                    val = scanner.nextInt();
+                } catch (Exception e) {
+                    val = null;
+                }
+                if (val == null) {
+                    failPipelinedDownload();
+                } else {
+                    datacenter_id = val;
+                    restartPipelinedDownload();
+                }
+            } else if (error.text.contains("OFFSET_INVALID") && requestInfo.offset % downloadChunkSize == 0) {
+                setEndOffset(requestInfo.offset);
+                try {
+                    checkPipelinedDownload();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    failPipelinedDownload();
+                }
+            } else {
+                failPipelinedDownload();
+            }
+            return;
+        }
+
+        requestInfo.response = (TLRPC.TL_upload_file)response;
+        int length = requestInfo.response.bytes.length;
+        if (length < requestInfo.limit) {
+            setEndOffset(requestInfo.offset + length);
+        }
+        try {
+            if (key != null) {
+                delayedRequestInfos.add(requestInfo);
+                writeDelayedParts();
+            } else {
+                writePart(requestInfo);
+            }
+            checkPipelinedDownload();
+        } catch (Exception e) {
+            e.printStackTrace();
+            failPipelinedDownload();
+        }
+    }
+
+    private void writePart(RequestInfo requestInfo) throws Exception {
+        byte[] bytes = requestInfo.response.bytes;
+        requestInfo.response = null;
+        if (bytes.length != 0 && fileOutputStream != null) {
+            fileOutputStream.seek(requestInfo.offset);
+            fileOutputStream.write(bytes);
+        }
+        int end = requestInfo.offset + bytes.length;
+        if (bytes.length != 0) {
+            downloadedRanges.set(requestInfo.offset / rangeUnitSize, (end + rangeUnitSize - 1) / rangeUnitSize);
+        }
+        int prefix = downloadedRanges.nextClearBit(0) * rangeUnitSize;
+        if (endOffset >= 0) {
+            prefix = Math.min(prefix, endOffset);
+        }
+        if (prefix > downloadedBytes) {
+            downloadedBytes = prefix;
+            if (partsOutputStream != null) {
+                partsOutputStream.seek(0);
+                partsOutputStream.writeInt(downloadedBytes);
+            }
+            if (totalBytesCount != 0) {
+                delegate.didChangedLoadProgress(FileLoadOperation.this, Math.min(1.0f, (float)downloadedBytes / (float)totalBytesCount));
+            }
+        }
+    }
+
+    private void writeDelayedParts() throws Exception {
+        boolean found = true;
+        while (found) {
+            found = false;
+            for (int a = 0; a < delayedRequestInfos.size(); a++) {
+                RequestInfo requestInfo = delayedRequestInfos.get(a);
+                if (requestInfo.offset == downloadedBytes) {
+                    delayedRequestInfos.remove(a);
+                    byte[] bytes = requestInfo.response.bytes;
+                    if (bytes.length != 0) {
+                        Utilities.aesIgeEncryption(bytes, 0, bytes.length, key, iv, false, true);
+                    }
+                    writePart(requestInfo);
+                    found = bytes.length != 0;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void setEndOffset(int offset) {
+        if (endOffset < 0 || offset < endOffset) {
+            endOffset = offset;
+        }
+    }
+
+    private void checkPipelinedDownload() throws Exception {
+        if (state != 1) {
+            return;
+        }
+        if (endOffset >= 0 && downloadedBytes >= endOffset) {
+            cancelRequests();
+            onFinishLoadingFile();
+            return;
+        }
+        fillDownloadWindow();
+    }
+
+    private void restartPipelinedDownload() {
+        cancelRequests();
+        delayedRequestInfos.clear();
+        nextDownloadOffset = downloadedBytes;
+        currentChunkSize = downloadChunkSize;
+        fillDownloadWindow();
+    }
+
+    private void failPipelinedDownload() {
+        cancelRequests();
+        closePartsFile(false);
+        delegate.didFailedLoadingFile(FileLoadOperation.this);
+    }
+
+    private void cancelRequests() {
+        if (requestInfos == null) {
+            return;
+        }
+        for (RequestInfo requestInfo : requestInfos) {
+            if (requestInfo.requestToken != 0) {
+                ConnectionsManager.Instance.cancelRpc(requestInfo.requestToken, true);
+            }
+        }
+        requestInfos.clear();
+    }
+
+    private void closePartsFile(boolean delete) {
+        if (partsOutputStream != null) {
+            try {
+                partsOutputStream.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            partsOutputStream = null;
+        }
+        if (delete && cacheFileParts != null) {
+            cacheFileParts.delete();
+        }
+    }
 }
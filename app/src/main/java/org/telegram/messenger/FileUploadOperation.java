@@ -14,28 +14,55 @@ import org.telegram.TL.TLRPC;
 import java.io.File;
 import java.io.FileInputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Locale;
 
+/**
+ * Uploads a file with up to maxUploadRequests saveFilePart requests in flight. Parts are read
+ * through a FileChannel and encrypted one at a time on fileUploadQueue, so the MD5 and the IGE
+ * chain see them in order while the next part gets ready during the upload of the previous ones.
+ * Everything else runs on the stage queue, parts may be acked in any order and are retried alone.
+ */
 public class FileUploadOperation {
     private final int uploadChunkSize = 1024 * 32;
+    private static final int maxPartRetries = 3;
     private String uploadingFilePath;
     public int state = 0;
-    private byte[] readBuffer = new byte[uploadChunkSize];
+    public int maxUploadRequests = 4;
     public FileUploadOperationDelegate delegate;
-    private long requestToken = 0;
-    private int currentPartNum = 0;
     private long currentFileId;
-    private boolean isLastPart = false;
     private long totalFileSize = 0;
     private long currentUploaded = 0;
     private byte[] key;
     private byte[] iv;
     private int fingerprint;
     FileInputStream stream;
+    FileChannel channel;
     MessageDigest mdEnc = null;
 
+    private int nextPartNum = 0;
+    private final ArrayList<byte[]> freeBuffers = new ArrayList<byte[]>();
+
+    private final ArrayList<UploadPart> requestParts = new ArrayList<UploadPart>();
+    private UploadPart preparedPart;
+    private boolean preparingPart;
+    private boolean lastPartPrepared;
+    private int totalParts;
+    private String md5Checksum;
+
+    private static class UploadPart {
+        private int partNum;
+        private byte[] bytes;
+        private int readed;
+        private boolean last;
+        private int retries;
+        private long requestToken;
+    }
+
     public static interface FileUploadOperationDelegate {
         public abstract void didFinishUploadingFile(FileUploadOperation operation, TLRPC.TL_inputFile inputFile, TLRPC.TL_inputEncryptedFileUploaded inputEncryptedFile);
         public abstract void didFailedUploadingFile(FileUploadOperation operation);
@@ -76,7 +103,12 @@ public class FileUploadOperation {
             return;
         }
         state = 1;
-        startUploadRequest();
+        Utilities.stageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                fillUploadWindow();
+            }
+        });
     }
 
     public void cancel() {
@@ -84,87 +116,205 @@ public class FileUploadOperation {
             return;
         }
         state = 2;
-        if (requestToken != 0) {
-            ConnectionsManager.Instance.cancelRpc(requestToken, true);
-        }
+        Utilities.stageQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                cancelRequests();
+            }
+        });
+        Utilities.fileUploadQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                closeStream();
+            }
+        });
         delegate.didFailedUploadingFile(this);
     }
 
-    private void startUploadRequest() {
+    private void fillUploadWindow() {
         if (state != 1) {
             return;
         }
+        while (preparedPart != null && requestParts.size() < maxUploadRequests) {
+            UploadPart part = preparedPart;
+            preparedPart = null;
+            sendPart(part);
+            prepareNextPart();
+        }
+        prepareNextPart();
+    }
 
-        TLRPC.TL_upload_saveFilePart req = new TLRPC.TL_upload_saveFilePart();
-        req.file_part = currentPartNum;
-        req.file_id = currentFileId;
+    private void prepareNextPart() {
+        if (preparingPart || preparedPart != null || lastPartPrepared) {
+            return;
+        }
+        preparingPart = true;
+        Utilities.fileUploadQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                final UploadPart part = state == 1 ? readPart() : null;
+                Utilities.stageQueue.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        preparingPart = false;
+                        if (state != 1) {
+                            return;
+                        }
+                        if (part == null) {
+                            failUpload();
+                            return;
+                        }
+                        preparedPart = part;
+                        if (part.last) {
+                            lastPartPrepared = true;
+                            totalParts = part.partNum + 1;
+                        }
+                        fillUploadWindow();
+                    }
+                });
+            }
+        });
+    }
+
+    private UploadPart readPart() {
         try {
-            if (stream == null) {
+            if (channel == null) {
                 File cacheFile = new File(uploadingFilePath);
                 stream = new FileInputStream(cacheFile);
+                channel = stream.getChannel();
                 totalFileSize = cacheFile.length();
             }
-            int readed = stream.read(readBuffer);
+            byte[] readBuffer;
+            synchronized (freeBuffers) {
+                readBuffer = freeBuffers.isEmpty() ? new byte[uploadChunkSize] : freeBuffers.remove(freeBuffers.size() - 1);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(readBuffer);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+            }
+            int readed = buffer.position();
+
+            UploadPart part = new UploadPart();
+            part.partNum = nextPartNum++;
+            part.readed = readed;
+            part.last = readed != uploadChunkSize || channel.position() >= totalFileSize;
+
             int toAdd = 0;
             if (key != null && readed % 16 != 0) {
                 toAdd += 16 - readed % 16;
             }
-            byte[] sendBuffer = new byte[readed + toAdd];
-            if (readed != uploadChunkSize) {
-                isLastPart = true;
+            byte[] sendBuffer = readBuffer;
+            if (readed + toAdd != uploadChunkSize) {
+                sendBuffer = new byte[readed + toAdd];
+                System.arraycopy(readBuffer, 0, sendBuffer, 0, readed);
             }
-            System.arraycopy(readBuffer, 0, sendBuffer, 0, readed);
             if (key != null) {
-                sendBuffer = Utilities.aesIgeEncryption(sendBuffer, key, iv, true, true);
+                Utilities.aesIgeEncryption(sendBuffer, 0, sendBuffer.length, key, iv, true, true);
             }
             mdEnc.update(sendBuffer, 0, readed + toAdd);
-            req.bytes = sendBuffer;
-            currentUploaded += readed;
+            part.bytes = sendBuffer;
+
+            if (part.last) {
+                md5Checksum = String.format(Locale.US, "%32s", new BigInteger(1, mdEnc.digest()).toString(16)).replace(' ', '0');
+                closeStream();
+            }
+            return part;
+        } catch (Exception e) {
+            e.printStackTrace();
+            closeStream();
+            return null;
+        }
+    }
+
+    private void closeStream() {
+        try {
+            if (stream != null) {
+                stream.close();
+            }
         } catch (Exception e) {
             e.printStackTrace();
-            delegate.didFailedUploadingFile(this);
+        }
+        stream = null;
+        channel = null;
+    }
+
+    private void sendPart(final UploadPart part) {
+        requestParts.add(part);
+        TLRPC.TL_upload_saveFilePart req = new TLRPC.TL_upload_saveFilePart();
+        req.file_part = part.partNum;
+        req.file_id = currentFileId;
+        req.bytes = part.bytes;
+        part.requestToken = ConnectionsManager.Instance.performRpc(req, new RPCRequest.RPCRequestDelegate() {
+            @Override
+            public void run(TLObject response, TLRPC.TL_error error) {
+                processPartResult(part, response, error);
+            }
+        }, null, true, RPCRequest.RPCRequestClassUploadMedia, ConnectionsManager.DEFAULT_DATACENTER_ID);
+    }
+
+    private void processPartResult(UploadPart part, TLObject response, TLRPC.TL_error error) {
+        if (state != 1 || !requestParts.remove(part)) {
+            return;
+        }
+        part.requestToken = 0;
+        if (error != null || !(response instanceof TLRPC.TL_boolTrue)) {
+            if (part.retries < maxPartRetries) {
+                part.retries++;
+                sendPart(part);
+            } else {
+                failUpload();
+            }
             return;
         }
-        requestToken = ConnectionsManager.Instance.performRpc(req, new RPCRequest.RPCRequestDelegate() {
-                    @Override
-                    public void run(TLObject response, TLRPC.TL_error error) {
-                        requestToken = 0;
-                        if (error == null) {
-                            if (response instanceof TLRPC.TL_boolTrue) {
-                                currentPartNum++;
-                                delegate.didChangedUploadProgress(FileUploadOperation.this, (float)currentUploaded / (float)totalFileSize);
-                                if (isLastPart) {
-                                    state = 3;
-                                    if (key == null) {
-                                        TLRPC.TL_inputFile result = new TLRPC.TL_inputFile();
-                                        result.md5_checksum = String.format(Locale.US, "%32s", new BigInteger(1, mdEnc.digest()).toString(16)).replace(' ', '0');
-                                        result.parts = currentPartNum;
-                                        result.id = currentFileId;
-                                        result.name = uploadingFilePath.substring(uploadingFilePath.lastIndexOf("/") + 1);
-                                        delegate.didFinishUploadingFile(FileUploadOperation.this, result, null);
-                                    } else {
-                                        TLRPC.TL_inputEncryptedFileUploaded result = new TLRPC.TL_inputEncryptedFileUploaded();
-                                        result.md5_checksum = String.format(Locale.US, "%32s", new BigInteger(1, mdEnc.digest()).toString(16)).replace(' ', '0');
-                                        result.parts = currentPartNum;
-                                        result.id = currentFileId;
-                                        result.key_fingerprint = fingerprint;
-                                        delegate.didFinishUploadingFile(FileUploadOperation.this, null, result);
-                                    }
-                                } else {
-                                    startUploadRequest();
-                                }
-                            } else {
-                                delegate.didFailedUploadingFile(FileUploadOperation.this);
-                            }
-                        } else {
-                            delegate.didFailedUploadingFile(FileUploadOperation.this);
-                        }
-                    }
-                }, new RPCRequest.RPCProgressDelegate() {
-                    @Override
-                    public void progress(int length, int progress) {
 
-                    }
-                }, null, true, RPCRequest.RPCRequestClassUploadMedia, ConnectionsManager.DEFAULT_DATACENTER_ID);
+        currentUploaded += part.readed;
+        if (part.bytes.length == uploadChunkSize) {
+            synchronized (freeBuffers) {
+                freeBuffers.add(part.bytes);
+            }
+        }
+        part.bytes = null;
+        delegate.didChangedUploadProgress(FileUploadOperation.this, (float)currentUploaded / (float)totalFileSize);
+
+        if (lastPartPrepared && preparedPart == null && requestParts.isEmpty()) {
+            state = 3;
+            if (key == null) {
+                TLRPC.TL_inputFile result = new TLRPC.TL_inputFile();
+                result.md5_checksum = md5Checksum;
+                result.parts = totalParts;
+                result.id = currentFileId;
+                result.name = uploadingFilePath.substring(uploadingFilePath.lastIndexOf("/") + 1);
+                delegate.didFinishUploadingFile(FileUploadOperation.this, result, null);
+            } else {
+                TLRPC.TL_inputEncryptedFileUploaded result = new TLRPC.TL_inputEncryptedFileUploaded();
+                result.md5_checksum = md5Checksum;
+                result.parts = totalParts;
+                result.id = currentFileId;
+                result.key_fingerprint = fingerprint;
+                delegate.didFinishUploadingFile(FileUploadOperation.this, null, result);
+            }
+        } else {
+            fillUploadWindow();
+        }
+    }
+
+    private void failUpload() {
+        state = 4;
+        cancelRequests();
+        Utilities.fileUploadQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                closeStream();
+            }
+        });
+        delegate.didFailedUploadingFile(FileUploadOperation.this);
+    }
+
+    private void cancelRequests() {
+        for (UploadPart part : requestParts) {
+            if (part.requestToken != 0) {
+                ConnectionsManager.Instance.cancelRpc(part.requestToken, true);
+            }
+        }
+        requestParts.clear();
     }
 }
@@ -35,7 +35,7 @@ public class GcmBroadcastReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(final Context context, final Intent intent) {
-        if (ConnectionsManager.DEBUG_VERSION) {
+        if (BuildVars.DEBUG_VERSION) {
             Log.i("tmessages", "GCM received intent: " + intent);
         }
         setResultCode(Activity.RESULT_OK);
@@ -44,7 +44,7 @@ public class GcmBroadcastReceiver extends BroadcastReceiver {
             SharedPreferences preferences = context.getSharedPreferences("Notifications", Context.MODE_PRIVATE);
             boolean globalEnabled = preferences.getBoolean("EnableAll", true);
             if (!globalEnabled) {
-                if (ConnectionsManager.DEBUG_VERSION) {
+                if (BuildVars.DEBUG_VERSION) {
                     Log.i("tmessages", "GCM disabled");
                 }
                 return;
@@ -60,7 +60,7 @@ public class GcmBroadcastReceiver extends BroadcastReceiver {
             thread.setPriority(Thread.MAX_PRIORITY);
             thread.start();
         } else if (intent.getAction().equals("com.google.android.c2dm.intent.RECEIVE")) {
-            if (ConnectionsManager.DEBUG_VERSION) {
+            if (BuildVars.DEBUG_VERSION) {
                 String registration = intent.getStringExtra("registration_id");
                 if (intent.getStringExtra("error") != null) {
                     Log.e("tmessages", "Registration failed, should try again later.");
@@ -77,7 +77,7 @@ public class GcmBroadcastReceiver extends BroadcastReceiver {
         if (!UserConfig.clientActivated || context == null || extras == null) {
             return;
         }
-        if (ConnectionsManager.DEBUG_VERSION) {
+        if (BuildVars.DEBUG_VERSION) {
             Log.d("tmessages", "received push " + extras);
         }
         SharedPreferences preferences = context.getSharedPreferences("Notifications", Context.MODE_PRIVATE);
@@ -45,6 +45,26 @@ public class HandshakeAction extends Action implements TcpConnection.TcpConnecti
     ServerSalt serverSalt;
     public Datacenter datacenter;
 
+    /**
+     * Threads doing the pq factorization and the DH math, so handshakes with several datacenters
+     * don't wait for each other or hold up the stage queue.
+     */
+    public static int cryptoThreads = 2;
+    private static DispatchQueue[] cryptoQueues;
+    private static int nextCryptoQueue;
+
+    static synchronized DispatchQueue cryptoQueue() {
+        if (cryptoQueues == null) {
+            cryptoQueues = new DispatchQueue[Math.max(1, cryptoThreads)];
+            for (int a = 0; a < cryptoQueues.length; a++) {
+                cryptoQueues[a] = new DispatchQueue("handshakeQueue" + a);
+            }
+        }
+        DispatchQueue queue = cryptoQueues[nextCryptoQueue];
+        nextCryptoQueue = (nextCryptoQueue + 1) % cryptoQueues.length;
+        return queue;
+    }
+
     public HandshakeAction(Datacenter datacenter) {
         this.datacenter = datacenter;
     }
@@ -56,10 +76,8 @@ public class HandshakeAction extends Action implements TcpConnection.TcpConnecti
 
     void beginHandshake(boolean dropConnection) {
         if (datacenter.connection == null) {
-            datacenter.connection = new TcpConnection(datacenter.address, datacenter.port);
+            datacenter.connection = new TcpConnection(datacenter.address, datacenter.port, datacenter.datacenterId, RPCRequest.RPCRequestClassGeneric);
             datacenter.connection.delegate = this;
-            datacenter.connection.datacenterId = datacenter.datacenterId;
-            datacenter.connection.transportRequestClass = RPCRequest.RPCRequestClassGeneric;
         }
 
         processedMessageIds = new ArrayList<Long>();
@@ -178,7 +196,8 @@ public class HandshakeAction extends Action implements TcpConnection.TcpConnecti
                 ByteBuffer data = ByteBuffer.wrap(resPq.pq);
                 final long pqf = data.getLong();
                 final long messageIdf = messageId;
-                Utilities.globalQueue.postRunnable(new Runnable() {
+                final byte[] nonce = authNonce;
+                cryptoQueue().postRunnable(new Runnable() {
                     @Override
                     public void run() {
                         final Utilities.TPFactorizedValue factorizedPq = Utilities.getFactorizedValue(pqf);
@@ -186,6 +205,9 @@ public class HandshakeAction extends Action implements TcpConnection.TcpConnecti
                         Utilities.stageQueue.postRunnable(new Runnable() {
                             @Override
                             public void run() {
+                                if (nonce != authNonce) {
+                                    return;
+                                }
                                 ByteBuffer pBytes = ByteBuffer.allocate(4);
                                 pBytes.putInt((int)factorizedPq.p);
                                 byte[] pData = pBytes.array();
@@ -290,7 +312,8 @@ public class HandshakeAction extends Action implements TcpConnection.TcpConnecti
                 System.arraycopy(authNewNonce, 0, newNonce0_4, 0, 4);
                 tmpAesIv.writeRaw(newNonce0_4);
 
-                byte[] answerWithHash = Utilities.aesIgeEncryption(serverDhParams.encrypted_answer, tmpAesKey.toByteArray(), tmpAesIv.toByteArray(), false, false);
+                byte[] answerWithHash = serverDhParams.encrypted_answer;
+                Utilities.aesIgeEncryption(answerWithHash, 0, answerWithHash.length, tmpAesKey.toByteArray(), tmpAesIv.toByteArray(), false, false);
                 byte[] answerHash = new byte[20];
                 System.arraycopy(answerWithHash, 0, answerHash, 0, 20);
 
@@ -335,83 +358,35 @@ public class HandshakeAction extends Action implements TcpConnection.TcpConnecti
                     return;
                 }
 
-                byte[] b = new byte[256];
-                for (int a = 0; a < 256; a++) {
-                    b[a] = (byte)(MessagesController.random.nextDouble() * 255);
-                }
-
-                BigInteger i_g_b = BigInteger.valueOf(dhInnerData.g);
-                i_g_b = i_g_b.modPow(new BigInteger(1, b), new BigInteger(1, dhInnerData.dh_prime));
-                byte[] g_b = i_g_b.toByteArray();
-
-                BigInteger i_authKey = new BigInteger(1, dhInnerData.g_a);
-                i_authKey = i_authKey.modPow(new BigInteger(1, b), new BigInteger(1, dhInnerData.dh_prime));
-
-                authKey = i_authKey.toByteArray();
-                if (authKey.length > 256) {
-                    byte[] correctedAuth = new byte[256];
-                    System.arraycopy(authKey, 1, correctedAuth, 0, 256);
-                    authKey = correctedAuth;
-                } else if (authKey.length < 256) {
-                    byte[] correctedAuth = new byte[256];
-                    System.arraycopy(authKey, 0, correctedAuth, 256 - authKey.length, authKey.length);
-                    for (int a = 0; a < 256 - authKey.length; a++) {
-                        authKey[a] = 0;
-                    }
-                    authKey = correctedAuth;
-                }
-                byte[] authKeyHash = Utilities.computeSHA1(authKey);
-                authKeyId = new byte[8];
-                System.arraycopy(authKeyHash, authKeyHash.length - 8, authKeyId, 0, 8);
-
-                SerializedData serverSaltData = new SerializedData();
-                for (int i = 7; i >= 0; i--) {
-                    byte a_ = authNewNonce[i];
-                    byte b_ = authServerNonce[i];
-                    byte x = (byte)(a_ ^ b_);
-                    serverSaltData.writeByte(x);
-                }
-                ByteBuffer saltBuffer = ByteBuffer.wrap(serverSaltData.toByteArray());
-
-                timeDifference = dhInnerData.server_time - (int)(System.currentTimeMillis() / 1000);
-
-                serverSalt = new ServerSalt();
-                serverSalt.validSince = (int)(System.currentTimeMillis() / 1000) + timeDifference;
-                serverSalt.validUntil = (int)(System.currentTimeMillis() / 1000) + timeDifference + 30 * 60;
-                serverSalt.value = saltBuffer.getLong();
-
-                if (ConnectionsManager.DEBUG_VERSION) {
-                    Log.d("tmessages", String.format(Locale.US, "===== Time difference: %d", timeDifference));
-                }
-
-                TLRPC.TL_client_DH_inner_data clientInnerData = new TLRPC.TL_client_DH_inner_data();
-                clientInnerData.nonce = authNonce;
-                clientInnerData.server_nonce = authServerNonce;
-                clientInnerData.g_b = g_b;
-                clientInnerData.retry_id = 0;
-                SerializedData os = new SerializedData();
-                clientInnerData.serializeToStream(os);
-                byte[] clientInnerDataBytes = os.toByteArray();
-
-                SerializedData clientDataWithHash = new SerializedData();
-                clientDataWithHash.writeRaw(Utilities.computeSHA1(clientInnerDataBytes));
-                clientDataWithHash.writeRaw(clientInnerDataBytes);
-                while (clientDataWithHash.length() % 16 != 0) {
-                    clientDataWithHash.writeByte(0);
-                }
-
-                TLRPC.TL_set_client_DH_params setClientDhParams = new TLRPC.TL_set_client_DH_params();
-                setClientDhParams.nonce = authNonce;
-                setClientDhParams.server_nonce = authServerNonce;
-                setClientDhParams.encrypted_data = Utilities.aesIgeEncryption(clientDataWithHash.toByteArray(), tmpAesKey.toByteArray(), tmpAesIv.toByteArray(), true, false);
+                final byte[] nonce = authNonce;
+                final TLRPC.TL_server_DH_inner_data dhInnerDataf = dhInnerData;
+                final SerializedData tmpAesKeyf = tmpAesKey;
+                final SerializedData tmpAesIvf = tmpAesIv;
+                final long messageIdf = messageId;
+                cryptoQueue().postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        byte[] b = new byte[256];
+                        for (int a = 0; a < 256; a++) {
+                            b[a] = (byte)(MessagesController.random.nextDouble() * 255);
+                        }
 
-                TLRPC.TL_msgs_ack msgsAck = new TLRPC.TL_msgs_ack();
-                msgsAck.msg_ids = new ArrayList<Long>();
-                msgsAck.msg_ids.add(messageId);
-                sendMessageData(msgsAck, generateMessageId());
+                        BigInteger dhPrime = new BigInteger(1, dhInnerDataf.dh_prime);
+                        BigInteger exponent = new BigInteger(1, b);
+                        final byte[] g_b = BigInteger.valueOf(dhInnerDataf.g).modPow(exponent, dhPrime).toByteArray();
+                        final BigInteger i_authKey = new BigInteger(1, dhInnerDataf.g_a).modPow(exponent, dhPrime);
 
-                reqDHMsgData = null;
-                setClientDHParamsMsgData = sendMessageData(setClientDhParams, generateMessageId());
+                        Utilities.stageQueue.postRunnable(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (nonce != authNonce || reqDHMsgData == null) {
+                                    return;
+                                }
+                                sendClientDHParams(dhInnerDataf, g_b, i_authKey, tmpAesKeyf, tmpAesIvf, messageIdf);
+                            }
+                        });
+                    }
+                });
             } else {
                 Log.e("tmessages", "***** Couldn't set DH params");
                 beginHandshake(false);
@@ -520,6 +495,76 @@ public class HandshakeAction extends Action implements TcpConnection.TcpConnecti
         }
     }
 
+    void sendClientDHParams(TLRPC.TL_server_DH_inner_data dhInnerData, byte[] g_b, BigInteger i_authKey, SerializedData tmpAesKey, SerializedData tmpAesIv, long messageId) {
+        authKey = i_authKey.toByteArray();
+        if (authKey.length > 256) {
+            byte[] correctedAuth = new byte[256];
+            System.arraycopy(authKey, 1, correctedAuth, 0, 256);
+            authKey = correctedAuth;
+        } else if (authKey.length < 256) {
+            byte[] correctedAuth = new byte[256];
+            System.arraycopy(authKey, 0, correctedAuth, 256 - authKey.length, authKey.length);
+            for (int a = 0; a < 256 - authKey.length; a++) {
+                authKey[a] = 0;
+            }
+            authKey = correctedAuth;
+        }
+        byte[] authKeyHash = Utilities.computeSHA1(authKey);
+        authKeyId = new byte[8];
+        System.arraycopy(authKeyHash, authKeyHash.length - 8, authKeyId, 0, 8);
+
+        SerializedData serverSaltData = new SerializedData();
+        for (int i = 7; i >= 0; i--) {
+            byte a_ = authNewNonce[i];
+            byte b_ = authServerNonce[i];
+            byte x = (byte)(a_ ^ b_);
+            serverSaltData.writeByte(x);
+        }
+        ByteBuffer saltBuffer = ByteBuffer.wrap(serverSaltData.toByteArray());
+
+        timeDifference = dhInnerData.server_time - (int)(System.currentTimeMillis() / 1000);
+
+        serverSalt = new ServerSalt();
+        serverSalt.validSince = (int)(System.currentTimeMillis() / 1000) + timeDifference;
+        serverSalt.validUntil = (int)(System.currentTimeMillis() / 1000) + timeDifference + 30 * 60;
+        serverSalt.value = saltBuffer.getLong();
+
+        if (BuildVars.DEBUG_VERSION) {
+            Log.d("tmessages", String.format(Locale.US, "===== Time difference: %d", timeDifference));
+        }
+
+        TLRPC.TL_client_DH_inner_data clientInnerData = new TLRPC.TL_client_DH_inner_data();
+        clientInnerData.nonce = authNonce;
+        clientInnerData.server_nonce = authServerNonce;
+        clientInnerData.g_b = g_b;
+        clientInnerData.retry_id = 0;
+        SerializedData os = new SerializedData();
+        clientInnerData.serializeToStream(os);
+        byte[] clientInnerDataBytes = os.toByteArray();
+
+        SerializedData clientDataWithHash = new SerializedData();
+        clientDataWithHash.writeRaw(Utilities.computeSHA1(clientInnerDataBytes));
+        clientDataWithHash.writeRaw(clientInnerDataBytes);
+        while (clientDataWithHash.length() % 16 != 0) {
+            clientDataWithHash.writeByte(0);
+        }
+
+        TLRPC.TL_set_client_DH_params setClientDhParams = new TLRPC.TL_set_client_DH_params();
+        setClientDhParams.nonce = authNonce;
+        setClientDhParams.server_nonce = authServerNonce;
+        byte[] encryptedData = clientDataWithHash.toByteArray();
+        Utilities.aesIgeEncryption(encryptedData, 0, encryptedData.length, tmpAesKey.toByteArray(), tmpAesIv.toByteArray(), true, false);
+        setClientDhParams.encrypted_data = encryptedData;
+
+        TLRPC.TL_msgs_ack msgsAck = new TLRPC.TL_msgs_ack();
+        msgsAck.msg_ids = new ArrayList<Long>();
+        msgsAck.msg_ids.add(messageId);
+        sendMessageData(msgsAck, generateMessageId());
+
+        reqDHMsgData = null;
+        setClientDHParamsMsgData = sendMessageData(setClientDhParams, generateMessageId());
+    }
+
     @Override
     public void tcpConnectionClosed(TcpConnection connection) {
         wasDisconnect = true;
@@ -545,7 +590,7 @@ public class HandshakeAction extends Action implements TcpConnection.TcpConnecti
     }
 
     @Override
-    public void tcpConnectionReceivedData(TcpConnection connection, byte[] data) {
+    public void tcpConnectionReceivedData(TcpConnection connection, ByteBuffer data) {
         SerializedData is = new SerializedData(data);
 
         long keyId = is.readInt64();
@@ -0,0 +1,179 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.messenger;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * IGE on top of the platform AES/ECB cipher. Ciphers and scratch blocks are kept per thread,
+ * the cipher is only initialized again when the key changes.
+ */
+public class JavaCryptoProvider implements CryptoProvider {
+    private static final int CHUNK_SIZE = 4096;
+
+    private static class State {
+        final Cipher encryptCipher;
+        final Cipher decryptCipher;
+        final byte[] encryptKey = new byte[32];
+        final byte[] decryptKey = new byte[32];
+        boolean encryptReady;
+        boolean decryptReady;
+
+        final byte[] x = new byte[16];
+        final byte[] y = new byte[16];
+        final byte[] in = new byte[16];
+        final byte[] out = new byte[16];
+        byte[] chunk;
+
+        State() throws GeneralSecurityException {
+            encryptCipher = Cipher.getInstance("AES/ECB/NoPadding");
+            decryptCipher = Cipher.getInstance("AES/ECB/NoPadding");
+        }
+
+        Cipher cipher(byte[] key, boolean encrypt) throws GeneralSecurityException {
+            if (encrypt) {
+                if (!encryptReady || !Arrays.equals(encryptKey, key)) {
+                    encryptCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+                    System.arraycopy(key, 0, encryptKey, 0, 32);
+                    encryptReady = true;
+                }
+                return encryptCipher;
+            } else {
+                if (!decryptReady || !Arrays.equals(decryptKey, key)) {
+                    decryptCipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"));
+                    System.arraycopy(key, 0, decryptKey, 0, 32);
+                    decryptReady = true;
+                }
+                return decryptCipher;
+            }
+        }
+    }
+
+    private final ThreadLocal<State> state = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            try {
+                return new State();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES/ECB/NoPadding is not available", e);
+            }
+        }
+    };
+
+    private static void checkParams(int length, byte[] key, byte[] iv) {
+        if (length % 16 != 0) {
+            throw new IllegalArgumentException("length is not a multiple of 16: " + length);
+        }
+        if (key == null || key.length != 32 || iv == null || iv.length != 32) {
+            throw new IllegalArgumentException("key and iv must be 32 bytes");
+        }
+    }
+
+    private static void process(State st, Cipher cipher, byte[] data, int offset, int length) throws GeneralSecurityException {
+        byte[] x = st.x;
+        byte[] y = st.y;
+        byte[] in = st.in;
+        byte[] out = st.out;
+        // encrypt: x is the previous cipher block, y the previous plain block; decrypt: the other way round
+        for (int pos = offset, end = offset + length; pos < end; pos += 16) {
+            for (int a = 0; a < 16; a++) {
+                in[a] = (byte)(data[pos + a] ^ x[a]);
+            }
+            cipher.update(in, 0, 16, out, 0);
+            for (int a = 0; a < 16; a++) {
+                byte current = data[pos + a];
+                byte result = (byte)(out[a] ^ y[a]);
+                data[pos + a] = result;
+                x[a] = result;
+                y[a] = current;
+            }
+        }
+    }
+
+    private static void begin(State st, byte[] iv, boolean encrypt) {
+        if (encrypt) {
+            System.arraycopy(iv, 0, st.x, 0, 16);
+            System.arraycopy(iv, 16, st.y, 0, 16);
+        } else {
+            System.arraycopy(iv, 16, st.x, 0, 16);
+            System.arraycopy(iv, 0, st.y, 0, 16);
+        }
+    }
+
+    private static void end(State st, byte[] iv, boolean encrypt) {
+        if (encrypt) {
+            System.arraycopy(st.x, 0, iv, 0, 16);
+            System.arraycopy(st.y, 0, iv, 16, 16);
+        } else {
+            System.arraycopy(st.y, 0, iv, 0, 16);
+            System.arraycopy(st.x, 0, iv, 16, 16);
+        }
+    }
+
+    @Override
+    public void aesIge(byte[] data, int offset, int length, byte[] key, byte[] iv, boolean encrypt, boolean changeIv) {
+        checkParams(length, key, iv);
+        State st = state.get();
+        try {
+            Cipher cipher = st.cipher(key, encrypt);
+            begin(st, iv, encrypt);
+            process(st, cipher, data, offset, length);
+            if (changeIv) {
+                end(st, iv, encrypt);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void aesIge(ByteBuffer buffer, byte[] key, byte[] iv, boolean encrypt, boolean changeIv) {
+        if (buffer.hasArray()) {
+            aesIge(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), key, iv, encrypt, changeIv);
+            return;
+        }
+        int length = buffer.remaining();
+        checkParams(length, key, iv);
+        State st = state.get();
+        if (st.chunk == null) {
+            st.chunk = new byte[CHUNK_SIZE];
+        }
+        try {
+            Cipher cipher = st.cipher(key, encrypt);
+            begin(st, iv, encrypt);
+            ByteBuffer view = buffer.duplicate();
+            int position = view.position();
+            while (length > 0) {
+                int count = Math.min(length, CHUNK_SIZE);
+                view.position(position);
+                view.get(st.chunk, 0, count);
+                process(st, cipher, st.chunk, 0, count);
+                view.position(position);
+                view.put(st.chunk, 0, count);
+                position += count;
+                length -= count;
+            }
+            if (changeIv) {
+                end(st, iv, encrypt);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public long factorizePQ(long pq) {
+        return PQFactorizer.factorize(pq);
+    }
+}
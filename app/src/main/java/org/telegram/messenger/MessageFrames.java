@@ -0,0 +1,123 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.messenger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Queue;
+
+/**
+ * Pooled frames for TcpConnection and the encryption of an MTProto message inside one. A message
+ * is serialized right behind its header into the frame and encrypted in place, the frame is then
+ * handed to TcpConnection.sendFrame without another copy.
+ */
+public class MessageFrames {
+    /**
+     * Room in front of the payload of a frame for the 0xef marker and the abridged length.
+     */
+    public static final int FRAME_HEADER_SIZE = 5;
+
+    private static final int minPooledFrameShift = 10;
+    private static final int maxPooledFrameShift = 17;
+    private static final int maxPooledFrames = 8;
+    private static final ArrayList<ArrayList<ByteBuffer>> freeFrames = new ArrayList<ArrayList<ByteBuffer>>();
+    static {
+        for (int a = minPooledFrameShift; a <= maxPooledFrameShift; a++) {
+            freeFrames.add(new ArrayList<ByteBuffer>());
+        }
+    }
+
+    /**
+     * Returns a writer for the payload of one frame. It is backed by a pooled buffer with
+     * FRAME_HEADER_SIZE bytes left free in front, so the frame is sent without copying it again.
+     */
+    public static SerializedData obtainFrame(int payloadSize) {
+        return new SerializedData(obtainFrameBuffer(FRAME_HEADER_SIZE + payloadSize), FRAME_HEADER_SIZE);
+    }
+
+    private static ByteBuffer obtainFrameBuffer(int size) {
+        int shift = Math.max(minPooledFrameShift, 32 - Integer.numberOfLeadingZeros(size - 1));
+        if (shift > maxPooledFrameShift) {
+            return ByteBuffer.allocate(size);
+        }
+        ArrayList<ByteBuffer> frames = freeFrames.get(shift - minPooledFrameShift);
+        synchronized (frames) {
+            if (!frames.isEmpty()) {
+                return frames.remove(frames.size() - 1);
+            }
+        }
+        return ByteBuffer.allocate(1 << shift);
+    }
+
+    public static void releaseFrameBuffer(ByteBuffer buffer) {
+        int shift = 31 - Integer.numberOfLeadingZeros(buffer.capacity());
+        if (shift < minPooledFrameShift || shift > maxPooledFrameShift) {
+            return;
+        }
+        ArrayList<ByteBuffer> frames = freeFrames.get(shift - minPooledFrameShift);
+        synchronized (frames) {
+            if (frames.size() < maxPooledFrames) {
+                frames.add(buffer);
+            }
+        }
+    }
+
+    static void releaseFrames(Queue<ByteBuffer> frames) {
+        ByteBuffer frame;
+        while ((frame = frames.poll()) != null) {
+            releaseFrameBuffer(frame);
+        }
+    }
+
+    /**
+     * Returns a frame holding the header of an encrypted message: auth key id, room for the
+     * message key, then salt, session id, message id, seqno and the length, which
+     * encryptMessageFrame fills in. The body of bodySize bytes is serialized next.
+     */
+    public static SerializedData obtainMessageFrame(byte[] authKeyId, long serverSalt, long sessionId, long messageId, int messageSeqNo, int bodySize) {
+        SerializedData frame = obtainFrame(24 + 32 + bodySize + 15);
+        frame.writeRaw(authKeyId);
+        frame.writeInt64(0);
+        frame.writeInt64(0);
+        frame.writeInt64(serverSalt);
+        frame.writeInt64(sessionId);
+        frame.writeInt64(messageId);
+        frame.writeInt32(messageSeqNo);
+        frame.writeInt32(0);
+        return frame;
+    }
+
+    /**
+     * Pads the message written into a frame from obtainMessageFrame, sets its length, computes
+     * the message key into messageKeyFull and encrypts the message in place. Returns the quick
+     * ack id of the message.
+     */
+    public static int encryptMessageFrame(SerializedData frame, MessageKeyDeriver keyDeriver, CryptoProvider cryptoProvider, byte[] messageKeyFull, MessageKeyData keyData) {
+        int innerOffset = FRAME_HEADER_SIZE + 24;
+        int innerLength = frame.length() - innerOffset;
+        int padding = (16 - innerLength % 16) % 16;
+        for (int a = 0; a < padding; a++) {
+            frame.writeByte(0);
+        }
+
+        ByteBuffer data = frame.getBuffer();
+        data.putInt(innerOffset + 28, innerLength - 32);
+
+        MessageKeyDeriver.computeSHA1(data.array(), data.arrayOffset() + innerOffset, innerLength, messageKeyFull);
+        int quickAck = (messageKeyFull[0] & 0xff) | ((messageKeyFull[1] & 0xff) << 8) | ((messageKeyFull[2] & 0xff) << 16) | ((messageKeyFull[3] & 0xff) << 24);
+
+        keyDeriver.derive(messageKeyFull, 4, false, keyData);
+
+        data.position(FRAME_HEADER_SIZE + 8);
+        data.put(messageKeyFull, 4, 16);
+        cryptoProvider.aesIge(data, keyData.aesKey, keyData.aesIv, true, false);
+
+        return quickAck & 0x7fffffff;
+    }
+}
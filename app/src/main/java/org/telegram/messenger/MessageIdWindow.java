@@ -0,0 +1,129 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.messenger;
+
+/**
+ * Remembers the last processed message ids of a session to drop replayed messages. Ids are kept
+ * in arrival order in a ring, once it is full the oldest id is forgotten when a new one comes in.
+ * Lookups go through an open addressing set of primitive longs.
+ */
+public class MessageIdWindow {
+    private final long[] ring;
+    private int head;
+    private int size;
+
+    private final long[] table;
+    private final int mask;
+    private final int shift;
+    private boolean hasZero;
+
+    public MessageIdWindow(int capacity) {
+        ring = new long[capacity];
+        int tableSize = Integer.highestOneBit(capacity * 3 - 1) << 1;
+        table = new long[tableSize];
+        mask = tableSize - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(tableSize);
+    }
+
+    private int slot(long messageId) {
+        return (int)((messageId * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    public boolean contains(long messageId) {
+        if (messageId == 0) {
+            return hasZero;
+        }
+        int index = slot(messageId);
+        long value;
+        while ((value = table[index]) != 0) {
+            if (value == messageId) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the id, returns false if it was already there.
+     */
+    public boolean add(long messageId) {
+        if (contains(messageId)) {
+            return false;
+        }
+        if (size == ring.length) {
+            remove(ring[head]);
+            ring[head] = messageId;
+            if (++head == ring.length) {
+                head = 0;
+            }
+        } else {
+            int tail = head + size;
+            if (tail >= ring.length) {
+                tail -= ring.length;
+            }
+            ring[tail] = messageId;
+            size++;
+        }
+        insert(messageId);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+        hasZero = false;
+        for (int a = 0; a < table.length; a++) {
+            table[a] = 0;
+        }
+    }
+
+    private void insert(long messageId) {
+        if (messageId == 0) {
+            hasZero = true;
+            return;
+        }
+        int index = slot(messageId);
+        while (table[index] != 0) {
+            index = (index + 1) & mask;
+        }
+        table[index] = messageId;
+    }
+
+    private void remove(long messageId) {
+        if (messageId == 0) {
+            hasZero = false;
+            return;
+        }
+        int index = slot(messageId);
+        while (table[index] != messageId) {
+            if (table[index] == 0) {
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        // shift the following entries of the cluster back so lookups don't stop at the hole
+        int hole = index;
+        index = (index + 1) & mask;
+        long value;
+        while ((value = table[index]) != 0) {
+            int home = slot(value);
+            if (((index - home) & mask) >= ((index - hole) & mask)) {
+                table[hole] = value;
+                hole = index;
+            }
+            index = (index + 1) & mask;
+        }
+        table[hole] = 0;
+    }
+}
@@ -11,4 +11,15 @@ package org.telegram.messenger;
 public class MessageKeyData {
     public byte[] aesKey;
     public byte[] aesIv;
+
+    public static MessageKeyData generateMessageKeyData(byte[] authKey, byte[] messageKey, boolean incoming) {
+        MessageKeyData keyData = new MessageKeyData();
+        if (authKey == null || authKey.length == 0) {
+            keyData.aesIv = null;
+            keyData.aesKey = null;
+            return keyData;
+        }
+        new MessageKeyDeriver(authKey).derive(messageKey, incoming, keyData);
+        return keyData;
+    }
 }
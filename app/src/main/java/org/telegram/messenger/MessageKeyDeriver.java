@@ -0,0 +1,126 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.messenger;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Derives the AES key and iv of a message from the auth key it is bound to. The SHA-1 digests
+ * and hash buffers are kept per thread, so deriving into a reused MessageKeyData allocates nothing.
+ */
+public class MessageKeyDeriver {
+    private static class State {
+        final MessageDigest sha1;
+        final byte[] a = new byte[20];
+        final byte[] b = new byte[20];
+        final byte[] c = new byte[20];
+        final byte[] d = new byte[20];
+
+        State() throws NoSuchAlgorithmException {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        }
+    }
+
+    private static final ThreadLocal<State> state = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            try {
+                return new State();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-1 is not available", e);
+            }
+        }
+    };
+
+    private final byte[] authKey;
+
+    public MessageKeyDeriver(byte[] authKey) {
+        if (authKey == null || authKey.length < 128 + 8) {
+            throw new IllegalArgumentException("auth key is too short");
+        }
+        this.authKey = authKey;
+    }
+
+    public byte[] getAuthKey() {
+        return authKey;
+    }
+
+    /**
+     * Writes the SHA-1 of the given range into the first 20 bytes of out.
+     */
+    public static void computeSHA1(byte[] data, int offset, int length, byte[] out) {
+        MessageDigest sha1 = state.get().sha1;
+        sha1.update(data, offset, length);
+        try {
+            sha1.digest(out, 0, 20);
+        } catch (DigestException e) {
+            sha1.reset();
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static void digest(MessageDigest sha1, byte[] out) {
+        try {
+            sha1.digest(out, 0, 20);
+        } catch (DigestException e) {
+            sha1.reset();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Fills keyData.aesKey and keyData.aesIv, the arrays are reused when they are already 32 bytes.
+     */
+    public void derive(byte[] messageKey, boolean incoming, MessageKeyData keyData) {
+        derive(messageKey, 0, incoming, keyData);
+    }
+
+    public void derive(byte[] messageKey, int messageKeyOffset, boolean incoming, MessageKeyData keyData) {
+        State st = state.get();
+        MessageDigest sha1 = st.sha1;
+        int x = incoming ? 8 : 0;
+
+        sha1.update(messageKey, messageKeyOffset, 16);
+        sha1.update(authKey, x, 32);
+        digest(sha1, st.a);
+
+        sha1.update(authKey, 32 + x, 16);
+        sha1.update(messageKey, messageKeyOffset, 16);
+        sha1.update(authKey, 48 + x, 16);
+        digest(sha1, st.b);
+
+        sha1.update(authKey, 64 + x, 32);
+        sha1.update(messageKey, messageKeyOffset, 16);
+        digest(sha1, st.c);
+
+        sha1.update(messageKey, messageKeyOffset, 16);
+        sha1.update(authKey, 96 + x, 32);
+        digest(sha1, st.d);
+
+        if (keyData.aesKey == null || keyData.aesKey.length != 32) {
+            keyData.aesKey = new byte[32];
+        }
+        if (keyData.aesIv == null || keyData.aesIv.length != 32) {
+            keyData.aesIv = new byte[32];
+        }
+
+        byte[] aesKey = keyData.aesKey;
+        System.arraycopy(st.a, 0, aesKey, 0, 8);
+        System.arraycopy(st.b, 8, aesKey, 8, 12);
+        System.arraycopy(st.c, 4, aesKey, 20, 12);
+
+        byte[] aesIv = keyData.aesIv;
+        System.arraycopy(st.a, 8, aesIv, 0, 12);
+        System.arraycopy(st.b, 0, aesIv, 12, 8);
+        System.arraycopy(st.c, 16, aesIv, 20, 4);
+        System.arraycopy(st.d, 0, aesIv, 24, 8);
+    }
+}
@@ -2301,7 +2301,8 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             dataForEncryption.writeByte(0);
         }
 
-        byte[] encryptedData = Utilities.aesIgeEncryption(dataForEncryption.toByteArray(), keyData.aesKey, keyData.aesIv, true, false);
+        byte[] encryptedData = dataForEncryption.toByteArray();
+        Utilities.aesIgeEncryption(encryptedData, 0, encryptedData.length, keyData.aesKey, keyData.aesIv, true, false);
 
         data = new SerializedData();
         data.writeInt64(chat.key_fingerprint);
@@ -3402,7 +3403,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
                         }
                     });
 
-                    if (ConnectionsManager.DEBUG_VERSION) {
+                    if (BuildVars.DEBUG_VERSION) {
                         Log.e("tmessages", "received defference with date = " + UserConfig.lastDateValue + " pts = " + UserConfig.lastPtsValue + " seq = " + UserConfig.lastSeqValue);
                         Log.e("tmessages", "messages = " + res.new_messages.size() + " users = " + res.users.size() + " chats = " + res.chats.size() + " other updates = " + res.other_updates.size());
                     }
@@ -4241,7 +4242,7 @@ public class MessagesController implements NotificationCenter.NotificationCenter
             MessageKeyData keyData = Utilities.generateMessageKeyData(chat.auth_key, messageKey, false);
 
             byte[] messageData = is.readData(message.bytes.length - 24);
-            messageData = Utilities.aesIgeEncryption(messageData, keyData.aesKey, keyData.aesIv, false, false);
+            Utilities.aesIgeEncryption(messageData, 0, messageData.length, keyData.aesKey, keyData.aesIv, false, false);
 
             is = new SerializedData(messageData);
             int len = is.readInt32();
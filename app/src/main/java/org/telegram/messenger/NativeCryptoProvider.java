@@ -0,0 +1,48 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.messenger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Goes through the JNI implementation in libtmessages, which works on copies of the data.
+ */
+public class NativeCryptoProvider implements CryptoProvider {
+    @Override
+    public void aesIge(byte[] data, int offset, int length, byte[] key, byte[] iv, boolean encrypt, boolean changeIv) {
+        byte[] what;
+        if (offset == 0 && length == data.length) {
+            what = data;
+        } else {
+            what = new byte[length];
+            System.arraycopy(data, offset, what, 0, length);
+        }
+        byte[] result = Utilities.aesIgeEncryption(what, key, iv, encrypt, changeIv);
+        System.arraycopy(result, 0, data, offset, length);
+    }
+
+    @Override
+    public void aesIge(ByteBuffer buffer, byte[] key, byte[] iv, boolean encrypt, boolean changeIv) {
+        if (buffer.hasArray()) {
+            aesIge(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), key, iv, encrypt, changeIv);
+            return;
+        }
+        ByteBuffer view = buffer.duplicate();
+        byte[] what = new byte[view.remaining()];
+        view.get(what);
+        byte[] result = Utilities.aesIgeEncryption(what, key, iv, encrypt, changeIv);
+        view.position(buffer.position());
+        view.put(result);
+    }
+
+    @Override
+    public long factorizePQ(long pq) {
+        return Utilities.doPQNative(pq);
+    }
+}
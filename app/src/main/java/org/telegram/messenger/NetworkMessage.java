@@ -14,4 +14,5 @@ public class NetworkMessage {
     public TLRPC.TL_protoMessage protoMessage;
     public Object rawRequest;
     public long requestId;
+    public int priority = RPCRequest.RPCRequestPriorityNormal;
 }
@@ -0,0 +1,117 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.messenger;
+
+/**
+ * Splits the pq of a handshake with Pollard's rho in Brent's variant. Differences are multiplied
+ * up and only every batchSize steps a gcd is taken. Products modulo pq are Montgomery products,
+ * the walk doesn't care that its values carry the Montgomery factor.
+ */
+public class PQFactorizer {
+    private static final int batchSize = 128;
+
+    /**
+     * Returns a non trivial divisor of what, or 0 if none was found.
+     */
+    public static long factorize(long what) {
+        if (what < 4) {
+            return 0;
+        }
+        if ((what & 1) == 0) {
+            return 2;
+        }
+        for (long c = 1; c < 64; c++) {
+            long divisor = rho(what, c);
+            if (divisor > 1 && divisor < what) {
+                return divisor;
+            }
+        }
+        return 0;
+    }
+
+    private static long rho(long n, long c) {
+        long nPrime = montgomeryPrime(n);
+        long y = 2;
+        long x = y;
+        long ys = y;
+        long q = 1;
+        long g = 1;
+        for (long r = 1; g == 1; r <<= 1) {
+            x = y;
+            for (long i = 0; i < r; i++) {
+                y = step(y, c, n, nPrime);
+            }
+            for (long k = 0; k < r && g == 1; k += batchSize) {
+                ys = y;
+                long count = Math.min(batchSize, r - k);
+                for (long i = 0; i < count; i++) {
+                    y = step(y, c, n, nPrime);
+                    q = montgomeryMul(q, Math.abs(x - y), n, nPrime);
+                }
+                g = gcd(q, n);
+            }
+            if (r > (1L << 40)) {
+                return 0;
+            }
+        }
+        if (g == n) {
+            do {
+                ys = step(ys, c, n, nPrime);
+                g = gcd(Math.abs(x - ys), n);
+            } while (g == 1);
+        }
+        return g;
+    }
+
+    private static long step(long x, long c, long n, long nPrime) {
+        long result = montgomeryMul(x, x, n, nPrime) + c;
+        return result < 0 || result >= n ? result - n : result;
+    }
+
+    /**
+     * Returns -n^-1 modulo 2^64 for an odd n.
+     */
+    private static long montgomeryPrime(long n) {
+        long inverse = n;
+        for (int a = 0; a < 5; a++) {
+            inverse *= 2 - n * inverse;
+        }
+        return -inverse;
+    }
+
+    /**
+     * Returns a * b / 2^64 modulo n for a, b < n < 2^63.
+     */
+    static long montgomeryMul(long a, long b, long n, long nPrime) {
+        long low = a * b;
+        long m = low * nPrime;
+        long result = multiplyHigh(a, b) + multiplyHigh(m, n) + (low != 0 ? 1 : 0);
+        // below 2n as unsigned, so past Long.MAX_VALUE it is above n as well
+        return result < 0 || result >= n ? result - n : result;
+    }
+
+    private static long multiplyHigh(long x, long y) {
+        long x0 = x & 0xffffffffL;
+        long x1 = x >>> 32;
+        long y0 = y & 0xffffffffL;
+        long y1 = y >>> 32;
+        long t = x1 * y0 + ((x0 * y0) >>> 32);
+        long w = x0 * y1 + (t & 0xffffffffL);
+        return x1 * y1 + (t >>> 32) + (w >>> 32);
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
@@ -32,14 +32,29 @@ public class RPCRequest {
 
     static int RPCRequestClassTransportMask = (RPCRequestClassGeneric | RPCRequestClassDownloadMedia | RPCRequestClassUploadMedia);
 
+    /**
+     * Priority lanes, lower goes first. Waiting requests move up a lane every priorityAgingTime ms.
+     */
+    public static final int RPCRequestPriorityInteractive = 0;
+    public static final int RPCRequestPriorityNormal = 1;
+    public static final int RPCRequestPriorityBackground = 2;
+    public static final int RPCRequestPriorityPrefetch = 3;
+    static final int RPCRequestPriorityCount = 4;
+    static final int[] priorityWeights = {8, 4, 2, 1};
+
+    public static int priorityAgingTime = 2000;
+
     long token;
     boolean cancelled;
 
     int serverFailureCount;
     int flags;
+    int priority = RPCRequestPriorityNormal;
+    long enqueueTime;
 
     TLObject rawRequest;
     TLObject rpcRequest;
+    TLObject packedRequest;
     int serializedLength;
 
     RPCRequestDelegate completionBlock;
@@ -52,20 +67,24 @@ public class RPCRequest {
     int runningMessageSeqNo;
     int runningDatacenterId;
     int transportChannelToken;
+    TcpConnection transportConnection;
+    int transportBytes;
 
     int runningStartTime;
+    long runningSendTime;
     int runningMinStartTime;
+    int nextCheckTime;
 
     boolean confirmed;
 
     ArrayList<Long> respondsToMessageIds = new ArrayList<Long>();
 
-    public void addRespondMessageId(long messageId) {
-        respondsToMessageIds.add(messageId);
-    }
-
-    boolean respondsToMessageId(long messageId) {
-        return runningMessageId == messageId || respondsToMessageIds.contains(messageId);
+    int effectivePriority(long currentTime) {
+        if (priorityAgingTime <= 0 || priority == RPCRequestPriorityInteractive) {
+            return priority;
+        }
+        long lanes = (currentTime - enqueueTime) / priorityAgingTime;
+        return (int)Math.max(RPCRequestPriorityInteractive, priority - lanes);
     }
 }
 
@@ -0,0 +1,168 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.messenger;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Decides when a dropped TcpConnection tries again. The delay doubles with every failure in a row
+ * of the connection, up to maxDelay, and is jittered so connections don't retry in lockstep.
+ * Failures are also counted per datacenter: after breakerThreshold of them without a success the
+ * datacenter's breaker opens and every connection to it waits until breakerOpenTime has passed.
+ * Connections of different transport classes run on different network threads, so all state is
+ * guarded by the class lock.
+ */
+public class ReconnectPolicy {
+    public static int minDelay = 200;
+    public static int maxDelay = 10000;
+    public static int breakerThreshold = 10;
+    public static int breakerOpenTime = 30000;
+
+    public static class Stats {
+        public int reconnects;
+        public int failures;
+        public int successes;
+        public int breakerTrips;
+        public int lastDelay;
+
+        Stats copy() {
+            Stats stats = new Stats();
+            stats.reconnects = reconnects;
+            stats.failures = failures;
+            stats.successes = successes;
+            stats.breakerTrips = breakerTrips;
+            stats.lastDelay = lastDelay;
+            return stats;
+        }
+    }
+
+    private static class Breaker {
+        int failures;
+        long openUntil;
+    }
+
+    private static final HashMap<Integer, Breaker> breakers = new HashMap<Integer, Breaker>();
+    private static final HashMap<Long, Stats> stats = new HashMap<Long, Stats>();
+    private static final HashSet<TcpConnection> waiting = new HashSet<TcpConnection>();
+    private static final Random random = new Random();
+
+    private static long statsKey(int datacenterId, int transportRequestClass) {
+        return ((long)datacenterId << 32) | (transportRequestClass & 0xffffffffL);
+    }
+
+    private static Stats stats(int datacenterId, int transportRequestClass) {
+        long key = statsKey(datacenterId, transportRequestClass);
+        Stats result = stats.get(key);
+        if (result == null) {
+            result = new Stats();
+            stats.put(key, result);
+        }
+        return result;
+    }
+
+    private static Breaker breaker(int datacenterId) {
+        Breaker result = breakers.get(datacenterId);
+        if (result == null) {
+            result = new Breaker();
+            breakers.put(datacenterId, result);
+        }
+        return result;
+    }
+
+    /**
+     * Records a dropped or failed connection and returns how long it should wait before the next
+     * attempt. failedCount is the number of failures of the connection in a row, starting at 1.
+     * The connection is remembered until reconnecting or networkAvailable.
+     */
+    static synchronized int connectionFailed(TcpConnection connection, int failedCount) {
+        long now = System.currentTimeMillis();
+
+        Breaker breaker = breaker(connection.datacenterId);
+        breaker.failures++;
+        Stats connectionStats = stats(connection.datacenterId, connection.transportRequestClass);
+        connectionStats.failures++;
+        if (breaker.failures >= breakerThreshold && now >= breaker.openUntil) {
+            breaker.openUntil = now + breakerOpenTime;
+            connectionStats.breakerTrips++;
+            if (BuildVars.DEBUG_VERSION) {
+                Log.e("tmessages", "reconnect breaker open for datacenter " + connection.datacenterId + " after " + breaker.failures + " failures");
+            }
+        }
+
+        int shift = Math.min(Math.max(failedCount - 1, 0), 16);
+        int delay = (int)Math.min((long)minDelay << shift, maxDelay);
+        delay = delay / 2 + random.nextInt(delay / 2 + 1);
+        if (breaker.openUntil > now) {
+            delay = (int)Math.max(delay, breaker.openUntil - now);
+        }
+
+        connectionStats.reconnects++;
+        connectionStats.lastDelay = delay;
+        waiting.add(connection);
+        return delay;
+    }
+
+    /**
+     * Called once a connection got data again after failing, closes the breaker of its datacenter.
+     */
+    static synchronized void connectionSucceeded(TcpConnection connection) {
+        Breaker breaker = breakers.get(connection.datacenterId);
+        if (breaker != null) {
+            breaker.failures = 0;
+            breaker.openUntil = 0;
+        }
+        stats(connection.datacenterId, connection.transportRequestClass).successes++;
+    }
+
+    static synchronized void reconnecting(TcpConnection connection) {
+        waiting.remove(connection);
+    }
+
+    /**
+     * Closes all breakers and makes every connection waiting for its reconnect try right away.
+     */
+    public static void networkAvailable() {
+        ArrayList<TcpConnection> connections;
+        synchronized (ReconnectPolicy.class) {
+            for (Breaker breaker : breakers.values()) {
+                breaker.failures = 0;
+                breaker.openUntil = 0;
+            }
+            connections = new ArrayList<TcpConnection>(waiting);
+            waiting.clear();
+        }
+        if (BuildVars.DEBUG_VERSION) {
+            Log.d("tmessages", "network available, reconnecting " + connections.size() + " connections");
+        }
+        for (TcpConnection connection : connections) {
+            connection.reconnectNow();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the reconnect counters of one datacenter and transport class.
+     */
+    public static synchronized Stats getStats(int datacenterId, int transportRequestClass) {
+        Stats result = stats.get(statsKey(datacenterId, transportRequestClass));
+        return result != null ? result.copy() : new Stats();
+    }
+
+    /**
+     * True while the breaker of the datacenter keeps its connections from retrying.
+     */
+    public static synchronized boolean isBreakerOpen(int datacenterId) {
+        Breaker breaker = breakers.get(datacenterId);
+        return breaker != null && breaker.openUntil > System.currentTimeMillis();
+    }
+}
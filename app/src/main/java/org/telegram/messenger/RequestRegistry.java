@@ -0,0 +1,452 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.messenger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Queued and running rpc requests of ConnectionsManager. Running requests are indexed by token,
+ * by every message id they may be answered with and by transport class. Only used from the stage
+ * queue, message ids of running requests must be changed through this class to keep the index right.
+ *
+ * Running media requests remember the pooled connection they went out on, whose outstandingBytes
+ * include them until they finish.
+ *
+ * Running requests also sit in a timeout wheel with one bucket per second, so the resend pass
+ * only looks at requests whose check time has come instead of every running request.
+ *
+ * Queued requests of a class are kept in one FIFO per priority lane. The lanes are merged when
+ * the queue is walked, only looking at the head of each lane.
+ */
+public class RequestRegistry {
+    private static final int WHEEL_SIZE = 64;
+    private static final int CHECK_NOW = -1;
+
+    private final LinkedHashMap<Long, RPCRequest> queued = new LinkedHashMap<Long, RPCRequest>();
+    private final HashMap<Integer, ArrayList<LinkedHashMap<Long, RPCRequest>>> queuedByClass = new HashMap<Integer, ArrayList<LinkedHashMap<Long, RPCRequest>>>();
+    private final HashMap<Integer, Integer> queuedWithoutCompletion = new HashMap<Integer, Integer>();
+    private final LinkedHashMap<Long, RPCRequest> running = new LinkedHashMap<Long, RPCRequest>();
+    private final HashMap<Long, RPCRequest> runningByMessageId = new HashMap<Long, RPCRequest>();
+    private final HashMap<Integer, LinkedHashMap<Long, RPCRequest>> runningByClass = new HashMap<Integer, LinkedHashMap<Long, RPCRequest>>();
+    private final HashMap<Integer, HashMap<Integer, Integer>> datacentersByClass = new HashMap<Integer, HashMap<Integer, Integer>>();
+
+    private final ArrayList<ArrayList<RPCRequest>> wheel = new ArrayList<ArrayList<RPCRequest>>(WHEEL_SIZE);
+    private final ArrayList<RPCRequest> checkNow = new ArrayList<RPCRequest>();
+    private int wheelTime;
+
+    public RequestRegistry() {
+        for (int a = 0; a < WHEEL_SIZE; a++) {
+            wheel.add(new ArrayList<RPCRequest>());
+        }
+    }
+
+    static int transportClass(int flags) {
+        if ((flags & RPCRequest.RPCRequestClassGeneric) != 0) {
+            return RPCRequest.RPCRequestClassGeneric;
+        } else if ((flags & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
+            return RPCRequest.RPCRequestClassDownloadMedia;
+        } else if ((flags & RPCRequest.RPCRequestClassUploadMedia) != 0) {
+            return RPCRequest.RPCRequestClassUploadMedia;
+        }
+        return 0;
+    }
+
+    public void enqueue(RPCRequest request) {
+        queued.put(request.token, request);
+        int requestClass = transportClass(request.flags);
+        ArrayList<LinkedHashMap<Long, RPCRequest>> lanes = queuedByClass.get(requestClass);
+        if (lanes == null) {
+            lanes = new ArrayList<LinkedHashMap<Long, RPCRequest>>(RPCRequest.RPCRequestPriorityCount);
+            for (int a = 0; a < RPCRequest.RPCRequestPriorityCount; a++) {
+                lanes.add(new LinkedHashMap<Long, RPCRequest>());
+            }
+            queuedByClass.put(requestClass, lanes);
+        }
+        lanes.get(request.priority).put(request.token, request);
+        if (!request.requiresCompletion) {
+            increment(queuedWithoutCompletion, requestClass);
+        }
+        addDatacenter(request);
+    }
+
+    public Collection<RPCRequest> queued() {
+        return Collections.unmodifiableCollection(queued.values());
+    }
+
+    /**
+     * Queued requests of the given transport class in the order they should be sent at currentTime.
+     * Each step takes the head of the lane with the best effective priority that still has weight
+     * left in this round, RPCRequest.priorityWeights per round, so lower lanes keep getting a share.
+     * A lane is in queue order, so its head is the one that aged the most. Use removeQueued once
+     * done iterating, the lanes can't be changed while they are walked.
+     */
+    public Iterable<RPCRequest> queued(int requestClass, final long currentTime) {
+        final ArrayList<LinkedHashMap<Long, RPCRequest>> lanes = queuedByClass.get(requestClass);
+        if (lanes == null) {
+            return Collections.emptyList();
+        }
+        return new Iterable<RPCRequest>() {
+            @Override
+            public Iterator<RPCRequest> iterator() {
+                return new LaneIterator(lanes, currentTime);
+            }
+        };
+    }
+
+    private static class LaneIterator implements Iterator<RPCRequest> {
+        private final ArrayList<Iterator<RPCRequest>> lanes = new ArrayList<Iterator<RPCRequest>>(RPCRequest.RPCRequestPriorityCount);
+        private final RPCRequest[] heads = new RPCRequest[RPCRequest.RPCRequestPriorityCount];
+        private final int[] credits = new int[RPCRequest.RPCRequestPriorityCount];
+        private final long currentTime;
+
+        LaneIterator(ArrayList<LinkedHashMap<Long, RPCRequest>> queued, long currentTime) {
+            this.currentTime = currentTime;
+            for (int lane = 0; lane < RPCRequest.RPCRequestPriorityCount; lane++) {
+                Iterator<RPCRequest> iterator = queued.get(lane).values().iterator();
+                lanes.add(iterator);
+                heads[lane] = iterator.hasNext() ? iterator.next() : null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            for (RPCRequest head : heads) {
+                if (head != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public RPCRequest next() {
+            int best = -1;
+            int bestPriority = 0;
+            for (int round = 0; round < 2 && best == -1; round++) {
+                if (round != 0) {
+                    System.arraycopy(RPCRequest.priorityWeights, 0, credits, 0, credits.length);
+                }
+                for (int lane = 0; lane < heads.length; lane++) {
+                    RPCRequest head = heads[lane];
+                    if (head == null) {
+                        continue;
+                    }
+                    int priority = head.effectivePriority(currentTime);
+                    if (credits[priority] == 0) {
+                        continue;
+                    }
+                    if (best == -1 || priority < bestPriority || priority == bestPriority && head.enqueueTime < heads[best].enqueueTime) {
+                        best = lane;
+                        bestPriority = priority;
+                    }
+                }
+            }
+            if (best == -1) {
+                throw new NoSuchElementException();
+            }
+            credits[bestPriority]--;
+            RPCRequest request = heads[best];
+            Iterator<RPCRequest> iterator = lanes.get(best);
+            heads[best] = iterator.hasNext() ? iterator.next() : null;
+            return request;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * True if some queued request of the class doesn't count against its running limit.
+     */
+    public boolean hasQueuedWithoutCompletion(int requestClass) {
+        return queuedWithoutCompletion.containsKey(requestClass);
+    }
+
+    public RPCRequest removeQueued(long token) {
+        RPCRequest request = queued.remove(token);
+        if (request == null) {
+            return null;
+        }
+        int requestClass = transportClass(request.flags);
+        ArrayList<LinkedHashMap<Long, RPCRequest>> lanes = queuedByClass.get(requestClass);
+        if (lanes != null) {
+            lanes.get(request.priority).remove(token);
+        }
+        if (!request.requiresCompletion) {
+            decrement(queuedWithoutCompletion, requestClass);
+        }
+        removeDatacenter(request);
+        return request;
+    }
+
+    /**
+     * Datacenter ids, as the requests were given them, of queued and running requests of the class.
+     */
+    public Set<Integer> datacenters(int requestClass) {
+        HashMap<Integer, Integer> datacenters = datacentersByClass.get(requestClass);
+        if (datacenters == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(datacenters.keySet());
+    }
+
+    public Collection<RPCRequest> running() {
+        return running.values();
+    }
+
+    /**
+     * Running requests of the given transport class, RPCRequestClassGeneric, DownloadMedia or UploadMedia.
+     */
+    public Collection<RPCRequest> running(int requestClass) {
+        LinkedHashMap<Long, RPCRequest> requests = runningByClass.get(requestClass);
+        if (requests == null) {
+            return Collections.emptyList();
+        }
+        return requests.values();
+    }
+
+    public int runningCount(int requestClass) {
+        LinkedHashMap<Long, RPCRequest> requests = runningByClass.get(requestClass);
+        return requests != null ? requests.size() : 0;
+    }
+
+    public RPCRequest getRunning(long token) {
+        return running.get(token);
+    }
+
+    public void startRunning(RPCRequest request) {
+        running.put(request.token, request);
+        int requestClass = transportClass(request.flags);
+        LinkedHashMap<Long, RPCRequest> requests = runningByClass.get(requestClass);
+        if (requests == null) {
+            requests = new LinkedHashMap<Long, RPCRequest>();
+            runningByClass.put(requestClass, requests);
+        }
+        requests.put(request.token, request);
+        if (request.runningMessageId != 0) {
+            runningByMessageId.put(request.runningMessageId, request);
+        }
+        for (Long messageId : request.respondsToMessageIds) {
+            runningByMessageId.put(messageId, request);
+        }
+        addDatacenter(request);
+    }
+
+    public RPCRequest removeRunning(long token) {
+        RPCRequest request = running.remove(token);
+        if (request == null) {
+            return null;
+        }
+        LinkedHashMap<Long, RPCRequest> requests = runningByClass.get(transportClass(request.flags));
+        if (requests != null) {
+            requests.remove(token);
+        }
+        unindex(request, request.runningMessageId);
+        for (Long messageId : request.respondsToMessageIds) {
+            unindex(request, messageId);
+        }
+        removeDatacenter(request);
+        request.nextCheckTime = 0;
+        releaseConnection(request);
+        return request;
+    }
+
+    /**
+     * Counts the bytes the running request is expected to move against the connection it was sent
+     * over, until it finishes or is sent over another one.
+     */
+    public void assignConnection(RPCRequest request, TcpConnection connection, int bytes) {
+        releaseConnection(request);
+        if (running.get(request.token) != request) {
+            return;
+        }
+        request.transportConnection = connection;
+        request.transportBytes = bytes;
+        connection.outstandingBytes += bytes;
+    }
+
+    private static void releaseConnection(RPCRequest request) {
+        if (request.transportConnection != null) {
+            request.transportConnection.outstandingBytes -= request.transportBytes;
+            request.transportConnection = null;
+            request.transportBytes = 0;
+        }
+    }
+
+    /**
+     * Returns the running request sent with this message id, or answering to it after a resend.
+     */
+    public RPCRequest getRunningWithMessageId(long messageId) {
+        if (messageId == 0) {
+            return null;
+        }
+        return runningByMessageId.get(messageId);
+    }
+
+    public RPCRequest removeRunningWithMessageId(long messageId) {
+        RPCRequest request = getRunningWithMessageId(messageId);
+        if (request != null) {
+            removeRunning(request.token);
+        }
+        return request;
+    }
+
+    /**
+     * Setting the message id of a running request to 0 means it has to be sent again, so it is
+     * handed out by the next takeDue.
+     */
+    public void setRunningMessageId(RPCRequest request, long messageId) {
+        boolean isRunning = running.get(request.token) == request;
+        if (isRunning && !request.respondsToMessageIds.contains(request.runningMessageId)) {
+            unindex(request, request.runningMessageId);
+        }
+        request.runningMessageId = messageId;
+        if (isRunning) {
+            if (messageId != 0) {
+                runningByMessageId.put(messageId, request);
+            } else if (request.nextCheckTime != CHECK_NOW) {
+                request.nextCheckTime = CHECK_NOW;
+                checkNow.add(request);
+            }
+        }
+    }
+
+    /**
+     * Keeps accepting answers to an earlier message id of the request after it gets a new one.
+     */
+    public void addRespondMessageId(RPCRequest request, long messageId) {
+        request.respondsToMessageIds.add(messageId);
+        if (running.get(request.token) == request) {
+            runningByMessageId.put(messageId, request);
+        }
+    }
+
+    /**
+     * Makes takeDue return the running request once the given second has come, replacing the
+     * check it had before.
+     */
+    public void scheduleCheck(RPCRequest request, int time) {
+        if (running.get(request.token) != request) {
+            return;
+        }
+        if (wheelTime != 0 && time <= wheelTime) {
+            if (request.nextCheckTime != CHECK_NOW) {
+                request.nextCheckTime = CHECK_NOW;
+                checkNow.add(request);
+            }
+            return;
+        }
+        request.nextCheckTime = time;
+        wheel.get(time & (WHEEL_SIZE - 1)).add(request);
+    }
+
+    /**
+     * Adds the running requests whose check time is not after currentTime to out and unschedules them.
+     * Entries left behind by rescheduled or finished requests are dropped as their buckets come up.
+     */
+    public void takeDue(int currentTime, Collection<RPCRequest> out) {
+        for (RPCRequest request : checkNow) {
+            if (request.nextCheckTime == CHECK_NOW && running.get(request.token) == request) {
+                request.nextCheckTime = 0;
+                out.add(request);
+            }
+        }
+        checkNow.clear();
+
+        int from;
+        if (wheelTime == 0 || currentTime - wheelTime >= WHEEL_SIZE) {
+            from = currentTime - WHEEL_SIZE + 1;
+        } else if (currentTime < wheelTime - 1) {
+            // the clock went back, hand out everything so the requests get scheduled against the new time
+            for (ArrayList<RPCRequest> bucket : wheel) {
+                for (RPCRequest request : bucket) {
+                    if (request.nextCheckTime > 0 && running.get(request.token) == request) {
+                        request.nextCheckTime = 0;
+                        out.add(request);
+                    }
+                }
+                bucket.clear();
+            }
+            wheelTime = currentTime;
+            return;
+        } else {
+            from = wheelTime + 1;
+        }
+        for (int time = from; time <= currentTime; time++) {
+            int index = time & (WHEEL_SIZE - 1);
+            ArrayList<RPCRequest> bucket = wheel.get(index);
+            int kept = 0;
+            for (int a = 0; a < bucket.size(); a++) {
+                RPCRequest request = bucket.get(a);
+                int checkTime = request.nextCheckTime;
+                if (checkTime <= 0 || (checkTime & (WHEEL_SIZE - 1)) != index || running.get(request.token) != request) {
+                    continue;
+                }
+                if (checkTime <= currentTime) {
+                    request.nextCheckTime = 0;
+                    out.add(request);
+                } else {
+                    bucket.set(kept++, request);
+                }
+            }
+            for (int a = bucket.size() - 1; a >= kept; a--) {
+                bucket.remove(a);
+            }
+        }
+        if (currentTime > wheelTime) {
+            wheelTime = currentTime;
+        }
+    }
+
+    private void unindex(RPCRequest request, long messageId) {
+        if (messageId != 0 && runningByMessageId.get(messageId) == request) {
+            runningByMessageId.remove(messageId);
+        }
+    }
+
+    private void addDatacenter(RPCRequest request) {
+        int requestClass = transportClass(request.flags);
+        HashMap<Integer, Integer> datacenters = datacentersByClass.get(requestClass);
+        if (datacenters == null) {
+            datacenters = new HashMap<Integer, Integer>();
+            datacentersByClass.put(requestClass, datacenters);
+        }
+        increment(datacenters, request.runningDatacenterId);
+    }
+
+    private void removeDatacenter(RPCRequest request) {
+        HashMap<Integer, Integer> datacenters = datacentersByClass.get(transportClass(request.flags));
+        if (datacenters != null) {
+            decrement(datacenters, request.runningDatacenterId);
+        }
+    }
+
+    private static void increment(HashMap<Integer, Integer> counts, int key) {
+        Integer count = counts.get(key);
+        counts.put(key, count != null ? count + 1 : 1);
+    }
+
+    private static void decrement(HashMap<Integer, Integer> counts, int key) {
+        Integer count = counts.get(key);
+        if (count == null || count <= 1) {
+            counts.remove(key);
+        } else {
+            counts.put(key, count - 1);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.messenger;
+
+/**
+ * Round trip estimate of one connection, kept like TCP's retransmission timer (RFC 6298): a
+ * smoothed rtt and its mean deviation give the timeout, which doubles on every timeout until a
+ * fresh sample comes in. Only used from the stage queue.
+ */
+public class RttEstimator {
+    private static final int minRto = 1000;
+    private static final int maxRto = 120000;
+    private static final int maxBackoff = 64;
+
+    private int smoothedRtt;
+    private int rttVariance;
+    private boolean hasSamples;
+    private int backoff = 1;
+    private long lastBackoffTime;
+
+    /**
+     * Adds a measured round trip in milliseconds.
+     */
+    public void addSample(int rtt) {
+        if (rtt < 0) {
+            return;
+        }
+        if (!hasSamples) {
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2;
+            hasSamples = true;
+        } else {
+            rttVariance = (3 * rttVariance + Math.abs(smoothedRtt - rtt)) / 4;
+            smoothedRtt = (7 * smoothedRtt + rtt) / 8;
+        }
+        backoff = 1;
+    }
+
+    public boolean hasSamples() {
+        return hasSamples;
+    }
+
+    public int getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    public int getRttVariance() {
+        return rttVariance;
+    }
+
+    /**
+     * Current retransmission timeout in milliseconds, or 0 while there is no sample yet.
+     */
+    public int getRto() {
+        if (!hasSamples) {
+            return 0;
+        }
+        long rto = (long)smoothedRtt + Math.max(100, 4 * rttVariance);
+        rto = Math.max(minRto, Math.min(maxRto, rto));
+        return (int)Math.min(maxRto, rto * backoff);
+    }
+
+    /**
+     * Doubles the timeout after a request timed out. A burst of timeouts within one timeout period
+     * only counts once.
+     */
+    public void backoff(long currentTime) {
+        int rto = getRto();
+        if (rto == 0 || currentTime - lastBackoffTime < rto) {
+            return;
+        }
+        lastBackoffTime = currentTime;
+        if (backoff < maxBackoff) {
+            backoff *= 2;
+        }
+    }
+}
@@ -10,30 +10,78 @@ package org.telegram.messenger;
 
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public class SerializedData {
     protected boolean isOut = true;
     private ByteArrayOutputStream outbuf;
     private DataOutputStream out;
-    private ByteArrayInputStream inbuf;
-    private DataInputStream in;
+    private ByteBuffer buffer;
+    private boolean justCalc;
+    private int len;
 
     public SerializedData() {
         outbuf = new ByteArrayOutputStream();
         out = new DataOutputStream(outbuf);
     }
 
+    /**
+     * Creates a writer that only counts what is written, to get the serialized length of an
+     * object without copying it anywhere. Only length() and position() are meaningful.
+     */
+    public SerializedData(boolean calculate) {
+        justCalc = calculate;
+        if (!calculate) {
+            outbuf = new ByteArrayOutputStream();
+            out = new DataOutputStream(outbuf);
+        }
+    }
+
+    /**
+     * Creates a reusable writer backed by a little-endian ByteBuffer with the given
+     * initial capacity. The buffer grows when needed, call reset() to reuse it.
+     */
+    public SerializedData(int capacity) {
+        this(capacity, false);
+    }
+
+    public SerializedData(int capacity, boolean direct) {
+        buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Creates a writer that continues at the given position of an existing buffer, bytes in
+     * front of it are kept. If the buffer runs out of room a bigger copy takes its place.
+     */
+    public SerializedData(ByteBuffer buffer, int position) {
+        this.buffer = buffer;
+        buffer.clear();
+        buffer.position(position);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
     public SerializedData(byte[] data){
         isOut = false;
-        inbuf = new ByteArrayInputStream(data);
-        in = new DataInputStream(inbuf);
+        buffer = ByteBuffer.wrap(data);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Creates a reader over the remaining bytes of the given buffer. The bytes are not
+     * copied and the position of the passed buffer is not changed.
+     */
+    public SerializedData(ByteBuffer data) {
+        isOut = false;
+        buffer = data.slice();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
     }
 
     public SerializedData(File file) throws IOException {
@@ -43,11 +91,32 @@ public class SerializedData {
         is.close();
 
         isOut = false;
-        inbuf = new ByteArrayInputStream(data);
-        in = new DataInputStream(inbuf);
+        buffer = ByteBuffer.wrap(data);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void ensureCapacity(int count) {
+        if (buffer.remaining() >= count) {
+            return;
+        }
+        int newCapacity = Math.max(buffer.capacity() * 2, buffer.position() + count);
+        ByteBuffer newBuffer = buffer.isDirect() ? ByteBuffer.allocateDirect(newCapacity) : ByteBuffer.allocate(newCapacity);
+        newBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
     }
 
     public void writeInt32(int x){
+        if (justCalc) {
+            len += 4;
+            return;
+        }
+        if (buffer != null) {
+            ensureCapacity(4);
+            buffer.putInt(x);
+            return;
+        }
         writeInt32(x, out);
     }
 
@@ -62,6 +131,15 @@ public class SerializedData {
     }
 
     public void writeInt64(long i) {
+        if (justCalc) {
+            len += 8;
+            return;
+        }
+        if (buffer != null) {
+            ensureCapacity(8);
+            buffer.putLong(i);
+            return;
+        }
         writeInt64(i, out);
     }
 
@@ -96,12 +174,8 @@ public class SerializedData {
 
     public int readInt32(){
         try {
-            int i = 0;
-            for(int j = 0; j < 4; j++){
-                i |= (in.read() << (j * 8));
-            }
-            return i;
-        } catch(IOException x) {
+            return buffer.getInt();
+        } catch(Exception x) {
             Log.e("tmessages", "read int32 error");
         }
         return 0;
@@ -109,18 +183,23 @@ public class SerializedData {
 
     public long readInt64(){
         try {
-            long i = 0;
-            for(int j = 0; j < 8; j++){
-                i |= ((long)in.read() << (j * 8));
-            }
-            return i;
-        } catch(IOException x) {
+            return buffer.getLong();
+        } catch(Exception x) {
             Log.e("tmessages", "read int64 error");
         }
         return 0;
     }
 
     public void writeRaw(byte[] b){
+        if (justCalc) {
+            len += b.length;
+            return;
+        }
+        if (buffer != null) {
+            ensureCapacity(b.length);
+            buffer.put(b);
+            return;
+        }
         try {
             out.write(b);
         } catch(Exception x) {
@@ -129,6 +208,15 @@ public class SerializedData {
     }
 
     public void writeRaw(byte[] b, int offset, int count) {
+        if (justCalc) {
+            len += count;
+            return;
+        }
+        if (buffer != null) {
+            ensureCapacity(count);
+            buffer.put(b, offset, count);
+            return;
+        }
         try {
             out.write(b, offset, count);
         } catch(Exception x) {
@@ -136,15 +224,43 @@ public class SerializedData {
         }
     }
 
-    public void writeByte(int i) {
+    public void writeRaw(ByteBuffer b) {
+        if (justCalc) {
+            len += b.remaining();
+            return;
+        }
+        if (buffer != null) {
+            ensureCapacity(b.remaining());
+            buffer.put(b.duplicate());
+            return;
+        }
         try {
-            out.writeByte((byte)i);
-        } catch (Exception e) {
-            Log.e("tmessages", "write byte error");
+            if (b.hasArray()) {
+                out.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+            } else {
+                byte[] arr = new byte[b.remaining()];
+                b.duplicate().get(arr);
+                out.write(arr);
+            }
+        } catch(Exception x) {
+            Log.e("tmessages", "write raw error");
         }
     }
 
+    public void writeByte(int i) {
+        writeByte((byte)i);
+    }
+
     public void writeByte(byte b) {
+        if (justCalc) {
+            len += 1;
+            return;
+        }
+        if (buffer != null) {
+            ensureCapacity(1);
+            buffer.put(b);
+            return;
+        }
         try {
             out.writeByte(b);
         } catch (Exception e) {
@@ -154,7 +270,7 @@ public class SerializedData {
 
     public void readRaw(byte[] b){
         try {
-            in.read(b);
+            buffer.get(b);
         } catch(Exception x) {
             Log.e("tmessages", "read raw error");
         }
@@ -166,22 +282,62 @@ public class SerializedData {
         return arr;
     }
 
+    /**
+     * Returns a view of the next count bytes without copying them and skips them.
+     */
+    public ByteBuffer readBuffer(int count) {
+        try {
+            ByteBuffer result = buffer.slice();
+            result.limit(count);
+            result.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.position(buffer.position() + count);
+            return result;
+        } catch (Exception x) {
+            Log.e("tmessages", "read buffer error");
+        }
+        return null;
+    }
+
+    /**
+     * Returns a reader over the next count bytes sharing the same memory and skips them.
+     */
+    public SerializedData slice(int count) {
+        ByteBuffer data = readBuffer(count);
+        return data != null ? new SerializedData(data) : null;
+    }
+
+    public void skip(int count) {
+        try {
+            buffer.position(buffer.position() + count);
+        } catch (Exception x) {
+            Log.e("tmessages", "skip error");
+        }
+    }
+
+    private void skipPadding(int l, int sl) {
+        int padding = (4 - (l + sl) % 4) % 4;
+        buffer.position(buffer.position() + padding);
+    }
+
     public String readString(){
         try {
             int sl = 1;
-            int l = in.read();
-            if(l >= 254){
-                l = in.read() | (in.read() << 8) | (in.read() << 16);
+            int l = buffer.get() & 0xff;
+            if (l >= 254) {
+                l = (buffer.get() & 0xff) | ((buffer.get() & 0xff) << 8) | ((buffer.get() & 0xff) << 16);
                 sl = 4;
             }
-            byte[] b = new byte[l];
-            in.read(b);
-            int i=sl;
-            while((l + i) % 4 != 0) {
-                in.read();
-                i++;
+            String result;
+            if (buffer.hasArray()) {
+                result = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), l, "UTF-8");
+                buffer.position(buffer.position() + l);
+            } else {
+                byte[] b = new byte[l];
+                buffer.get(b);
+                result = new String(b, "UTF-8");
             }
-            return new String(b, "UTF-8");
+            skipPadding(l, sl);
+            return result;
         } catch(Exception x) {
             Log.e("tmessages", "read string error");
         }
@@ -191,18 +347,14 @@ public class SerializedData {
     public byte[] readByteArray() {
         try {
             int sl = 1;
-            int l = in.read();
-            if (l >= 254){
-                l = in.read() | (in.read() << 8) | (in.read() << 16);
+            int l = buffer.get() & 0xff;
+            if (l >= 254) {
+                l = (buffer.get() & 0xff) | ((buffer.get() & 0xff) << 8) | ((buffer.get() & 0xff) << 16);
                 sl = 4;
             }
             byte[] b = new byte[l];
-            in.read(b);
-            int i = sl;
-            while((l + i) % 4 != 0){
-                in.read();
-                i++;
-            }
+            buffer.get(b);
+            skipPadding(l, sl);
             return b;
         } catch(Exception x) {
             Log.e("tmessages", "read byte array error");
@@ -211,24 +363,7 @@ public class SerializedData {
     }
 
     public void writeByteArray(byte[] b){
-        try {
-            if (b.length <= 253){
-                out.write(b.length);
-            } else {
-                out.write(254);
-                out.write(b.length);
-                out.write(b.length >> 8);
-                out.write(b.length >> 16);
-            }
-            out.write(b);
-            int i = b.length <= 253 ? 1 : 4;
-            while((b.length + i) % 4 != 0){
-                out.write(0);
-                i++;
-            }
-        }catch(Exception x) {
-            Log.e("tmessages", "write byte array error");
-        }
+        writeByteArray(b, 0, b.length);
     }
 
     public void writeString(String s){
@@ -240,6 +375,29 @@ public class SerializedData {
     }
 
     public void writeByteArray(byte[] b, int offset, int count) {
+        if (justCalc) {
+            int header = count <= 253 ? 1 : 4;
+            len += (header + count + 3) & ~3;
+            return;
+        }
+        if (buffer != null) {
+            ensureCapacity(count + 8);
+            if (count <= 253) {
+                buffer.put((byte)count);
+            } else {
+                buffer.put((byte)254);
+                buffer.put((byte)count);
+                buffer.put((byte)(count >> 8));
+                buffer.put((byte)(count >> 16));
+            }
+            buffer.put(b, offset, count);
+            int i = count <= 253 ? 1 : 4;
+            while ((count + i) % 4 != 0) {
+                buffer.put((byte)0);
+                i++;
+            }
+            return;
+        }
         try {
             if(count <= 253){
                 out.write(count);
@@ -278,16 +436,68 @@ public class SerializedData {
     }
 
     public int length() {
-        return isOut ? outbuf.size() : inbuf.available();
+        if (justCalc) {
+            return len;
+        }
+        if (!isOut) {
+            return buffer.remaining();
+        }
+        return buffer != null ? buffer.position() : outbuf.size();
+    }
+
+    public int position() {
+        if (justCalc) {
+            return len;
+        }
+        return buffer != null ? buffer.position() : outbuf.size();
+    }
+
+    /**
+     * Drops everything written so far, keeping the allocated memory.
+     */
+    public void reset() {
+        if (justCalc) {
+            len = 0;
+        } else if (buffer != null) {
+            buffer.clear();
+        } else {
+            outbuf.reset();
+        }
     }
 
     protected void set(byte[] newData) {
         isOut = false;
-        inbuf = new ByteArrayInputStream(newData);
-        in = new DataInputStream(inbuf);
+        buffer = ByteBuffer.wrap(newData);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns a little endian view sharing this object's bytes. For a writer the view holds the
+     * written bytes, positioned at 0 and limited to length(); writers made with the no-argument
+     * constructor have no buffer and return a copy instead. For a reader it is a duplicate at the
+     * current read position, limited to the limit of the data being read.
+     */
+    public ByteBuffer getBuffer() {
+        if (buffer == null) {
+            ByteBuffer result = ByteBuffer.wrap(outbuf.toByteArray());
+            result.order(ByteOrder.LITTLE_ENDIAN);
+            return result;
+        }
+        ByteBuffer result = buffer.duplicate();
+        if (isOut) {
+            result.flip();
+        }
+        result.order(ByteOrder.LITTLE_ENDIAN);
+        return result;
     }
 
     public byte[] toByteArray() {
+        if (buffer != null) {
+            ByteBuffer data = getBuffer();
+            byte[] result = new byte[data.remaining()];
+            data.get(result);
+            return result;
+        }
         return outbuf.toByteArray();
     }
 }
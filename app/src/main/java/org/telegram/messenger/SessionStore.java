@@ -0,0 +1,138 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.messenger;
+
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a file that is always replaced as a whole. New contents go to a temp file that is synced
+ * and renamed over the old one on the global queue, so a crash leaves either the old or the new
+ * file. Every file ends with a CRC32 of what comes before it, which tells a complete temp file
+ * from a torn one when the rename didn't happen.
+ */
+public class SessionStore {
+    private final File file;
+    private final File tempFile;
+    private byte[] lastWritten;
+
+    public SessionStore(File file) {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * Returns the stored contents with their checksum, falling back to a complete temp file and then
+     * to an unchecked file written before checksums were added. Null if there is nothing.
+     */
+    public byte[] read() {
+        byte[] data = readFile(file);
+        if (data != null && isComplete(data)) {
+            return data;
+        }
+        byte[] tempData = readFile(tempFile);
+        if (tempData != null && isComplete(tempData)) {
+            if (BuildVars.DEBUG_VERSION) {
+                Log.e("tmessages", "recovered session from " + tempFile);
+            }
+            return tempData;
+        }
+        return data;
+    }
+
+    /**
+     * Appends the checksum trailer to what was written to data.
+     */
+    public static byte[] seal(SerializedData data) {
+        byte[] bytes = data.toByteArray();
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes);
+        int crc = (int)crc32.getValue();
+        byte[] result = Arrays.copyOf(bytes, bytes.length + 4);
+        for (int a = 0; a < 4; a++) {
+            result[bytes.length + a] = (byte)(crc >>> (8 * a));
+        }
+        return result;
+    }
+
+    /**
+     * Writes sealed contents on the global queue. Writes are done in order and skipped when the
+     * contents didn't change since the last one.
+     */
+    public void write(final byte[] data) {
+        Utilities.globalQueue.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                if (lastWritten != null && Arrays.equals(lastWritten, data)) {
+                    return;
+                }
+                FileOutputStream stream = null;
+                try {
+                    stream = new FileOutputStream(tempFile);
+                    stream.write(data);
+                    stream.flush();
+                    stream.getFD().sync();
+                    stream.close();
+                    stream = null;
+                    if (!tempFile.renameTo(file)) {
+                        if (BuildVars.DEBUG_VERSION) {
+                            Log.e("tmessages", "can't rename " + tempFile + " to " + file);
+                        }
+                        return;
+                    }
+                    lastWritten = data;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    if (stream != null) {
+                        try {
+                            stream.close();
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private static boolean isComplete(byte[] data) {
+        if (data.length < 4) {
+            return false;
+        }
+        int length = data.length - 4;
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, length);
+        int crc = (int)crc32.getValue();
+        int stored = (data[length] & 0xff) | (data[length + 1] & 0xff) << 8 | (data[length + 2] & 0xff) << 16 | (data[length + 3] & 0xff) << 24;
+        return crc == stored;
+    }
+
+    private static byte[] readFile(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            FileInputStream is = new FileInputStream(file);
+            byte[] data = new byte[(int)file.length()];
+            new DataInputStream(is).readFully(data);
+            is.close();
+            return data;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+}
@@ -16,11 +16,14 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.LinkedList;
 import java.util.Queue;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import jawnae.pyronet.PyroClient;
 import jawnae.pyronet.PyroSelector;
+import jawnae.pyronet.PyroTimerWheel;
+import jawnae.pyronet.addon.PyroSelectorGroup;
 import jawnae.pyronet.events.PyroClientAdapter;
 
 public class TcpConnection extends PyroClientAdapter {
@@ -36,38 +39,106 @@ public class TcpConnection extends PyroClientAdapter {
         public abstract void tcpConnectionClosed(TcpConnection connection);
         public abstract void tcpConnectionConnected(TcpConnection connection);
         public abstract void tcpConnectionQuiackAckReceived(TcpConnection connection, int ack);
-        public abstract void tcpConnectionReceivedData(TcpConnection connection, byte[] data);
+        public abstract void tcpConnectionReceivedData(TcpConnection connection, ByteBuffer data);
     }
 
-    private static PyroSelector selector;
+    /**
+     * Number of network threads for generic, download and upload connections, read when the first
+     * connection of the class is created. Connections of one class are spread over its threads
+     * by datacenter, so media transfers never share an event loop with rpc calls.
+     */
+    public static int genericNetworkThreads = 1;
+    public static int downloadNetworkThreads = 1;
+    public static int uploadNetworkThreads = 1;
+
+    private static PyroSelectorGroup genericSelectors;
+    private static PyroSelectorGroup downloadSelectors;
+    private static PyroSelectorGroup uploadSelectors;
+
+    private final PyroSelector selector;
     private PyroClient client;
     public TcpConnectionState connectionState;
-    private Queue<byte[]> packetsQueue;
+    private Queue<ByteBuffer> packetsQueue;
+    private Queue<ByteBuffer> sentFrames;
     public volatile int channelToken = 0;
     private String hostAddress;
     private int hostPort;
     public int datacenterId;
     private int failedConnectionCount;
     public TcpConnectionDelegate delegate;
-    private ByteBuffer restOfTheData;
+    private ByteBuffer readBuffer;
+    private int readStart;
+    private boolean readBufferShared;
+
+    private static final int minReadBufferSize = 64 * 1024;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> inbox = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final ConcurrentLinkedQueue<Integer> quickAckInbox = new ConcurrentLinkedQueue<Integer>();
+    private final AtomicInteger inboxDepth = new AtomicInteger();
+    private volatile int maxInboxDepth;
+    private final AtomicBoolean inboxDrainScheduled = new AtomicBoolean();
+    private static final int maxPacketsPerDrain = 64;
+    private final Runnable inboxDrain = new Runnable() {
+        @Override
+        public void run() {
+            drainInbox();
+        }
+    };
 
     public int transportRequestClass;
+    public final int connectionNum;
+
+    /**
+     * Bytes of the running requests sent over this connection, kept by RequestRegistry on the stage queue.
+     */
+    int outstandingBytes;
+
+    /**
+     * Round trip estimate of the connection, fed and read by ConnectionsManager on the stage queue.
+     */
+    final RttEstimator rtt = new RttEstimator();
 
     private boolean firstPacket;
 
-    private Timer reconnectTimer;
+    private PyroTimerWheel.Timeout reconnectTimer;
 
-    public TcpConnection(String ip, int port) {
-        if (selector == null) {
-            selector = new PyroSelector();
-            selector.spawnNetworkThread("network thread");
-        }
-        packetsQueue = new LinkedList<byte[]>();
+    private static final int outboundLowWatermark = 64 * 1024;
+    private static final int outboundHighWatermark = 256 * 1024;
+
+    public TcpConnection(String ip, int port, int datacenterId, int transportRequestClass) {
+        this(ip, port, datacenterId, transportRequestClass, 0);
+    }
+
+    public TcpConnection(String ip, int port, int datacenterId, int transportRequestClass, int connectionNum) {
+        this.datacenterId = datacenterId;
+        this.transportRequestClass = transportRequestClass;
+        this.connectionNum = connectionNum;
+        selector = selectorGroup(transportRequestClass).selectorFor(datacenterId + connectionNum);
+        packetsQueue = new LinkedList<ByteBuffer>();
+        sentFrames = new LinkedList<ByteBuffer>();
         hostAddress = ip;
         hostPort = port;
         connectionState = TcpConnectionState.TcpConnectionStageIdle;
     }
 
+    private static synchronized PyroSelectorGroup selectorGroup(int transportRequestClass) {
+        if ((transportRequestClass & RPCRequest.RPCRequestClassDownloadMedia) != 0) {
+            if (downloadSelectors == null) {
+                downloadSelectors = new PyroSelectorGroup("download network thread", downloadNetworkThreads);
+            }
+            return downloadSelectors;
+        } else if ((transportRequestClass & RPCRequest.RPCRequestClassUploadMedia) != 0) {
+            if (uploadSelectors == null) {
+                uploadSelectors = new PyroSelectorGroup("upload network thread", uploadNetworkThreads);
+            }
+            return uploadSelectors;
+        }
+        if (genericSelectors == null) {
+            genericSelectors = new PyroSelectorGroup("network thread", genericNetworkThreads);
+        }
+        return genericSelectors;
+    }
+
     static volatile Integer nextChannelToken = 1;
     static int generateChannelToken() {
         return nextChannelToken++;
@@ -83,18 +154,20 @@ public class TcpConnection extends PyroClientAdapter {
 
                 connectionState = TcpConnectionState.TcpConnectionStageConnecting;
                 try {
-                    if (ConnectionsManager.DEBUG_VERSION) {
+                    if (BuildVars.DEBUG_VERSION) {
                         Log.d("tmessages", String.format(this + " Connecting (%s:%d)", hostAddress, hostPort));
                     }
                     firstPacket = true;
-                    restOfTheData = null;
+                    resetReadBuffer();
                     if (client != null) {
                         client.removeListener(TcpConnection.this);
                         client.dropConnection();
                     }
+                    MessageFrames.releaseFrames(sentFrames);
                     client = selector.connect(new InetSocketAddress(hostAddress, hostPort));
                     client.addListener(TcpConnection.this);
                     client.setTimeout(35000);
+                    client.setWriteWatermarks(outboundLowWatermark, outboundHighWatermark);
                     selector.wakeup();
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -104,7 +177,7 @@ public class TcpConnection extends PyroClientAdapter {
     }
 
     public void suspendConnection(boolean task) {
-        if (ConnectionsManager.DEBUG_VERSION) {
+        if (BuildVars.DEBUG_VERSION) {
             Log.d("tmessages", "suspend connnection " + this);
         }
         if (task) {
@@ -114,6 +187,7 @@ public class TcpConnection extends PyroClientAdapter {
                     if (reconnectTimer != null) {
                         reconnectTimer.cancel();
                         reconnectTimer = null;
+                        ReconnectPolicy.reconnecting(TcpConnection.this);
                     }
                     if (connectionState == TcpConnectionState.TcpConnectionStageIdle || connectionState == TcpConnectionState.TcpConnectionStageSuspended) {
                         return;
@@ -129,6 +203,7 @@ public class TcpConnection extends PyroClientAdapter {
             if (reconnectTimer != null) {
                 reconnectTimer.cancel();
                 reconnectTimer = null;
+                ReconnectPolicy.reconnecting(this);
             }
             if (connectionState == TcpConnectionState.TcpConnectionStageIdle) {
                 return;
@@ -145,13 +220,41 @@ public class TcpConnection extends PyroClientAdapter {
 
     }
 
+    /**
+     * Skips the rest of the reconnect delay, used by ReconnectPolicy when the network comes back.
+     */
+    void reconnectNow() {
+        selector.scheduleTask(new Runnable() {
+            @Override
+            public void run() {
+                if (reconnectTimer != null) {
+                    reconnectTimer.cancel();
+                    reconnectTimer = null;
+                    connect();
+                }
+            }
+        });
+    }
+
     private void reconnect() {
         suspendConnection(false);
         connectionState = TcpConnectionState.TcpConnectionStageReconnecting;
         connect();
     }
 
-    public void sendData(final byte[] data, final boolean reportAck, final boolean startResponseTimeout) {
+    public void sendData(byte[] data, boolean reportAck, boolean startResponseTimeout) {
+        SerializedData frame = MessageFrames.obtainFrame(data.length);
+        frame.writeRaw(data);
+        sendFrame(frame, reportAck, startResponseTimeout);
+    }
+
+    /**
+     * Sends a frame from MessageFrames.obtainFrame. The abridged length goes into the free space in
+     * front of the payload and the buffer is handed to the client as it is, it returns to the pool
+     * once written.
+     */
+    public void sendFrame(SerializedData frame, final boolean reportAck, final boolean startResponseTimeout) {
+        final ByteBuffer buffer = frame.getBuffer();
         selector.scheduleTask(new Runnable() {
             @Override
             public void run() {
@@ -161,143 +264,244 @@ public class TcpConnection extends PyroClientAdapter {
                     connect();
                 }
 
-                int packetLength = data.length / 4;
+                int packetLength = (buffer.limit() - MessageFrames.FRAME_HEADER_SIZE) / 4;
 
-                SerializedData buffer = new SerializedData();
+                int offset;
                 if (packetLength < 0x7f) {
                     if (reportAck) {
                         packetLength |= (1 << 7);
                     }
-                    buffer.writeByte(packetLength);
+                    offset = MessageFrames.FRAME_HEADER_SIZE - 1;
+                    buffer.put(offset, (byte)packetLength);
                 } else {
                     packetLength = (packetLength << 8) + 0x7f;
                     if (reportAck) {
                         packetLength |= (1 << 7);
                     }
-                    buffer.writeInt32(packetLength);
+                    offset = MessageFrames.FRAME_HEADER_SIZE - 4;
+                    buffer.putInt(offset, packetLength);
                 }
-                buffer.writeRaw(data);
+                buffer.position(offset);
 
-                final byte[] packet = buffer.toByteArray();
-
-                if (client != null && !client.isDisconnected()) {
-                    ByteBuffer sendBuffer = ByteBuffer.allocate((firstPacket ? 1 : 0) + packet.length);
-                    sendBuffer.rewind();
-                    sendBuffer.order(ByteOrder.LITTLE_ENDIAN);
-                    if (firstPacket) {
-                        sendBuffer.put((byte)0xef);
-                        firstPacket = false;
-                    }
-                    sendBuffer.put(packet);
-                    sendBuffer.rewind();
-                    client.write(sendBuffer);
+                if (client != null && !client.isDisconnected() && packetsQueue.isEmpty() && client.isWritable()) {
+                    writeFrame(buffer);
                 } else {
-                    packetsQueue.add(packet);
+                    packetsQueue.add(buffer);
                 }
             }
         });
     }
 
-    private void readData(ByteBuffer buffer) throws Exception {
-        if (ConnectionsManager.DEBUG_VERSION) {
-            Log.d("tmessages", "received data = " + buffer.limit());
+    private void writeFrame(ByteBuffer frame) {
+        if (firstPacket) {
+            frame.position(frame.position() - 1);
+            frame.put(frame.position(), (byte)0xef);
+            firstPacket = false;
         }
+        sentFrames.add(frame);
+        client.write(frame);
+    }
 
-        if (restOfTheData != null) {
-            if (ConnectionsManager.DEBUG_VERSION) {
-                Log.d("tmessages", "there is rest of data " + restOfTheData.limit());
-            }
-            ByteBuffer newBuffer = ByteBuffer.allocate(restOfTheData.limit() + buffer.limit());
-            newBuffer.put(restOfTheData);
-            newBuffer.put(buffer);
-            buffer = newBuffer;
-            restOfTheData = null;
+    /**
+     * Hands queued frames to the client until its outbound queue goes over the high watermark,
+     * the rest is written once it drained.
+     */
+    private void flushPacketsQueue() {
+        while (!packetsQueue.isEmpty() && client.isWritable()) {
+            writeFrame(packetsQueue.poll());
+        }
+    }
+
+    /**
+     * Received bytes are collected in readBuffer, unparsed data starts at readStart and ends at its
+     * position. Complete packets are passed on as slices of it, so once that happened
+     * (readBufferShared) the buffer is never written before its position again. It is only
+     * compacted or replaced when it runs out of room.
+     */
+    private void readData(ByteBuffer buffer) throws Exception {
+        if (BuildVars.DEBUG_VERSION) {
+            Log.d("tmessages", "received data = " + buffer.limit() + ", inbox depth = " + inboxDepth.get());
         }
 
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        buffer.rewind();
+        ensureReadCapacity(buffer.remaining());
+        readBuffer.put(buffer);
 
-        while (buffer.hasRemaining()) {
+        boolean received = false;
 
-            int currentPacketLength;
-            buffer.mark();
-            byte fByte = buffer.get();
+        int position = readStart;
+        int end = readBuffer.position();
+        while (position < end) {
+            int available = end - position;
+            byte fByte = readBuffer.get(position);
 
             if ((fByte & (1 << 7)) != 0) {
-                buffer.reset();
-                if (buffer.remaining() < 4) {
-                    restOfTheData = ByteBuffer.allocate(buffer.remaining());
-                    restOfTheData.put(buffer);
-                    restOfTheData.rewind();
+                if (available < 4) {
                     break;
                 }
-                buffer.order(ByteOrder.BIG_ENDIAN);
-                final int ackId = buffer.getInt() & (~(1 << 31));
+                readBuffer.order(ByteOrder.BIG_ENDIAN);
+                int ackId = readBuffer.getInt(position) & (~(1 << 31));
+                readBuffer.order(ByteOrder.LITTLE_ENDIAN);
                 if (delegate != null) {
-                    Utilities.stageQueue.postRunnable(new Runnable() {
-                        @Override
-                        public void run() {
-                            delegate.tcpConnectionQuiackAckReceived(TcpConnection.this, ackId);
-                        }
-                    });
+                    quickAckInbox.add(ackId);
+                    received = true;
                 }
-                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                position += 4;
                 continue;
             }
 
+            int currentPacketLength;
+            int headerLength;
             if (fByte != 0x7f) {
                 currentPacketLength = ((int)fByte) * 4;
+                headerLength = 1;
             } else {
-                buffer.reset();
-                if (buffer.remaining() < 4) {
-                    restOfTheData = ByteBuffer.allocate(buffer.remaining());
-                    restOfTheData.put(buffer);
-                    restOfTheData.rewind();
+                if (available < 4) {
                     break;
                 }
-                currentPacketLength = (buffer.getInt() >> 8) * 4;
+                currentPacketLength = (readBuffer.getInt(position) >> 8) * 4;
+                headerLength = 4;
             }
 
-            if (currentPacketLength < buffer.remaining()) {
-                if (ConnectionsManager.DEBUG_VERSION) {
-                    Log.d("tmessages", this + " Received message len " + currentPacketLength + " but packet larger " + buffer.remaining());
+            if (currentPacketLength < 0 || currentPacketLength % 4 != 0 || currentPacketLength > 2 * 1024 * 1024) {
+                if (BuildVars.DEBUG_VERSION) {
+                    Log.e("tmessages", "Invalid packet length");
                 }
-            } else if (currentPacketLength == buffer.remaining()) {
-                if (ConnectionsManager.DEBUG_VERSION) {
-                    Log.d("tmessages", this + " Received message len " + currentPacketLength + " equal to packet size");
+                reconnect();
+                return;
+            }
+
+            if (available < headerLength + currentPacketLength) {
+                if (BuildVars.DEBUG_VERSION) {
+                    Log.d("tmessages", this + " Received packet size less(" + (available - headerLength) + ") then message size(" + currentPacketLength + ")");
                 }
-            } else {
-                if (ConnectionsManager.DEBUG_VERSION) {
-                    Log.d("tmessages", this + " Received packet size less(" + buffer.remaining() + ") then message size(" + currentPacketLength + ")");
+                readStart = position;
+                // make room for the whole packet now, so it isn't moved again while it comes in
+                ensureReadCapacity(headerLength + currentPacketLength - available);
+                position = readStart;
+                break;
+            }
+
+            ByteBuffer packetData = readBuffer.duplicate();
+            packetData.limit(position + headerLength + currentPacketLength);
+            packetData.position(position + headerLength);
+            packetData = packetData.slice();
+            packetData.order(ByteOrder.LITTLE_ENDIAN);
+            readBufferShared = true;
+            if (delegate != null) {
+                inbox.add(packetData);
+                int depth = inboxDepth.incrementAndGet();
+                if (depth > maxInboxDepth) {
+                    maxInboxDepth = depth;
                 }
-                buffer.reset();
-                restOfTheData = ByteBuffer.allocate(buffer.remaining());
-                restOfTheData.order(ByteOrder.LITTLE_ENDIAN);
-                restOfTheData.put(buffer);
-                restOfTheData.rewind();
-                return;
+                received = true;
             }
+            position += headerLength + currentPacketLength;
+        }
+        readStart = position;
 
-            if (currentPacketLength % 4 != 0 || currentPacketLength > 2 * 1024 * 1024) {
-                if (ConnectionsManager.DEBUG_VERSION) {
-                    Log.e("tmessages", "Invalid packet length");
+        if (readStart == readBuffer.position() && !readBufferShared) {
+            readBuffer.clear();
+            readStart = 0;
+        }
+
+        if (received && inboxDrainScheduled.compareAndSet(false, true)) {
+            Utilities.stageQueue.postRunnable(inboxDrain);
+        }
+    }
+
+    /**
+     * Runs on the stage queue and hands the received packets to the delegate. At most
+     * maxPacketsPerDrain are handled per run, so other stage tasks get in between on big downloads.
+     */
+    private void drainInbox() {
+        while (true) {
+            Integer ackId;
+            while ((ackId = quickAckInbox.poll()) != null) {
+                if (delegate != null) {
+                    delegate.tcpConnectionQuiackAckReceived(this, ackId);
                 }
-                reconnect();
+            }
+            int count = 0;
+            ByteBuffer packetData;
+            while (count < maxPacketsPerDrain && (packetData = inbox.poll()) != null) {
+                inboxDepth.decrementAndGet();
+                count++;
+                if (delegate != null) {
+                    delegate.tcpConnectionReceivedData(this, packetData);
+                }
+            }
+            if (count == maxPacketsPerDrain && !inbox.isEmpty()) {
+                if (BuildVars.DEBUG_VERSION) {
+                    Log.d("tmessages", this + " inbox backlog " + inboxDepth.get());
+                }
+                Utilities.stageQueue.postRunnable(inboxDrain);
                 return;
             }
+            inboxDrainScheduled.set(false);
+            // the network thread may have added something after the last poll without posting
+            if (inbox.isEmpty() && quickAckInbox.isEmpty() || !inboxDrainScheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
 
-            final byte[] packetData = new byte[currentPacketLength];
-            buffer.get(packetData);
+    /**
+     * Number of received packets waiting for the stage queue.
+     */
+    public int getInboxDepth() {
+        return inboxDepth.get();
+    }
 
-            if (delegate != null) {
-                Utilities.stageQueue.postRunnable(new Runnable() {
-                    @Override
-                    public void run() {
-                        delegate.tcpConnectionReceivedData(TcpConnection.this, packetData);
-                    }
-                });
-            }
+    /**
+     * Highest inbox depth seen since the last call.
+     */
+    public int takeMaxInboxDepth() {
+        int depth = maxInboxDepth;
+        maxInboxDepth = inboxDepth.get();
+        return depth;
+    }
+
+    /**
+     * Makes room for count more bytes after the unparsed data. Without slices handed out the data
+     * is moved to the front, otherwise it goes to a new buffer and the old one is left to the packets.
+     */
+    private void ensureReadCapacity(int count) {
+        if (readBuffer != null && readBuffer.remaining() >= count) {
+            return;
+        }
+        int length = readBuffer != null ? readBuffer.position() - readStart : 0;
+        int required = length + count;
+        if (readBuffer != null && !readBufferShared && readBuffer.capacity() >= required) {
+            readBuffer.limit(readBuffer.position());
+            readBuffer.position(readStart);
+            readBuffer.compact();
+            readStart = 0;
+            return;
+        }
+        int capacity = minReadBufferSize;
+        if (readBuffer != null && !readBufferShared) {
+            capacity = Math.max(capacity, readBuffer.capacity() * 2);
+        }
+        ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(capacity, required));
+        newBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (length != 0) {
+            ByteBuffer rest = readBuffer.duplicate();
+            rest.limit(readBuffer.position());
+            rest.position(readStart);
+            newBuffer.put(rest);
+        }
+        readBuffer = newBuffer;
+        readStart = 0;
+        readBufferShared = false;
+    }
+
+    private void resetReadBuffer() {
+        if (readBuffer != null && !readBufferShared && readBuffer.capacity() == minReadBufferSize) {
+            readBuffer.clear();
+        } else {
+            readBuffer = null;
         }
+        readStart = 0;
     }
 
     public void handleDisconnect(PyroClient client, IOException e) {
@@ -305,7 +509,7 @@ public class TcpConnection extends PyroClientAdapter {
             reconnectTimer.cancel();
             reconnectTimer = null;
         }
-        if (ConnectionsManager.DEBUG_VERSION) {
+        if (BuildVars.DEBUG_VERSION) {
             if (e != null) {
                 Log.d("tmessages", "Disconnected " + this + " with error " + e);
             } else {
@@ -313,8 +517,9 @@ public class TcpConnection extends PyroClientAdapter {
             }
         }
         firstPacket = true;
-        restOfTheData = null;
-        packetsQueue.clear();
+        resetReadBuffer();
+        MessageFrames.releaseFrames(packetsQueue);
+        MessageFrames.releaseFrames(sentFrames);
         channelToken = 0;
         if (connectionState != TcpConnectionState.TcpConnectionStageSuspended && connectionState != TcpConnectionState.TcpConnectionStageIdle) {
             connectionState = TcpConnectionState.TcpConnectionStageIdle;
@@ -330,30 +535,19 @@ public class TcpConnection extends PyroClientAdapter {
         if (connectionState == TcpConnectionState.TcpConnectionStageIdle && (!packetsQueue.isEmpty() ||
                 (transportRequestClass & RPCRequest.RPCRequestClassGeneric) != 0 && (datacenterId == ConnectionsManager.Instance.currentDatacenterId || datacenterId == ConnectionsManager.Instance.movingToDatacenterId))) {
             failedConnectionCount++;
-            if (ConnectionsManager.DEBUG_VERSION) {
-                Log.d("tmessages", "Reconnect " + hostAddress + ":" + hostPort + " " + this);
+            int delay = ReconnectPolicy.connectionFailed(this, failedConnectionCount);
+            if (BuildVars.DEBUG_VERSION) {
+                Log.d("tmessages", "Reconnect " + hostAddress + ":" + hostPort + " " + this + " in " + delay + " ms");
             }
             try {
-                reconnectTimer = new Timer();
-                reconnectTimer.schedule(new TimerTask() {
+                reconnectTimer = selector.scheduleTask(new Runnable() {
                     @Override
                     public void run() {
-                        selector.scheduleTask(new Runnable() {
-                            @Override
-                            public void run() {
-                                try {
-                                    if (reconnectTimer != null) {
-                                        reconnectTimer.cancel();
-                                        reconnectTimer = null;
-                                    }
-                                } catch (Exception e2) {
-                                    e2.printStackTrace();
-                                }
-                                connect();
-                            }
-                        });
+                        reconnectTimer = null;
+                        ReconnectPolicy.reconnecting(TcpConnection.this);
+                        connect();
                     }
-                }, failedConnectionCount > 10 ? 500 : 200, failedConnectionCount > 10 ? 500 : 200);
+                }, delay);
             } catch (Exception e3) {
                 e3.printStackTrace();
             }
@@ -367,7 +561,7 @@ public class TcpConnection extends PyroClientAdapter {
         //}
         connectionState = TcpConnectionState.TcpConnectionStageConnected;
         channelToken = generateChannelToken();
-        if (ConnectionsManager.DEBUG_VERSION) {
+        if (BuildVars.DEBUG_VERSION) {
             Log.d("tmessages", String.format(this + " Connected (%s:%d)", hostAddress, hostPort));
         }
         if (delegate != null) {
@@ -378,18 +572,7 @@ public class TcpConnection extends PyroClientAdapter {
                 }
             });
         }
-        while (packetsQueue.size() != 0) {
-            byte[] packet = packetsQueue.poll();
-            ByteBuffer sendBuffer = ByteBuffer.allocate((firstPacket ? 1 : 0) + packet.length);
-            sendBuffer.order(ByteOrder.LITTLE_ENDIAN);
-            if (firstPacket) {
-                sendBuffer.put((byte)0xef);
-                firstPacket = false;
-            }
-            sendBuffer.put(packet);
-            sendBuffer.rewind();
-            client.write(sendBuffer);
-        }
+        flushPacketsQueue();
     }
 
     @Override
@@ -411,20 +594,32 @@ public class TcpConnection extends PyroClientAdapter {
     @Override
     public void receivedData(PyroClient client, ByteBuffer data) {
         try {
-            failedConnectionCount = 0;
+            if (failedConnectionCount != 0) {
+                ReconnectPolicy.connectionSucceeded(this);
+                failedConnectionCount = 0;
+            }
             readData(data);
         } catch (Exception e) {
-            if (ConnectionsManager.DEBUG_VERSION) {
+            if (BuildVars.DEBUG_VERSION) {
                 Log.d("tmessages", "read data error");
             }
             reconnect();
         }
     }
 
+    @Override
+    public void writabilityChanged(PyroClient client, boolean writable) {
+        if (writable && client == this.client) {
+            flushPacketsQueue();
+        }
+    }
+
     @Override
     public void sentData(PyroClient client, int bytes) {
-        failedConnectionCount = 0;
-        if (ConnectionsManager.DEBUG_VERSION) {
+        while (!sentFrames.isEmpty() && !sentFrames.peek().hasRemaining()) {
+            MessageFrames.releaseFrameBuffer(sentFrames.poll());
+        }
+        if (BuildVars.DEBUG_VERSION) {
             Log.d("tmessages", this + " bytes sent " + bytes);
         }
     }
@@ -45,6 +45,8 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.Hashtable;
 import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 
 import javax.crypto.Cipher;
@@ -71,6 +73,16 @@ public class Utilities {
         System.loadLibrary("tmessages");
     }
 
+    public static CryptoProvider cryptoProvider = new NativeCryptoProvider();
+
+    public static void aesIgeEncryption(byte[] data, int offset, int length, byte[] key, byte[] iv, boolean encrypt, boolean changeIv) {
+        cryptoProvider.aesIge(data, offset, length, key, iv, encrypt, changeIv);
+    }
+
+    public static void aesIgeEncryption(ByteBuffer buffer, byte[] key, byte[] iv, boolean encrypt, boolean changeIv) {
+        cryptoProvider.aesIge(buffer, key, iv, encrypt, changeIv);
+    }
+
     static final Class<?>[] constructorSignature = new Class[] {Context.class, AttributeSet.class};
 
     public static int externalCacheNotAvailableState = 0;
@@ -84,7 +96,7 @@ public class Utilities {
     }
 
     public static TPFactorizedValue getFactorizedValue(long what) {
-        long g = doPQNative(what);
+        long g = cryptoProvider.factorizePQ(what);
         if (g > 1 && g < what) {
             long p1 = g;
             long p2 = what / g;
@@ -155,50 +167,7 @@ public class Utilities {
     }
 
     public static MessageKeyData generateMessageKeyData(byte[] authKey, byte[] messageKey, boolean incoming) {
-        MessageKeyData keyData = new MessageKeyData();
-        if (authKey == null || authKey.length == 0) {
-            keyData.aesIv = null;
-            keyData.aesKey = null;
-            return keyData;
-        }
-
-        int x = incoming ? 8 : 0;
-
-        SerializedData data = new SerializedData();
-        data.writeRaw(messageKey);
-        data.writeRaw(authKey, x, 32);
-        byte[] sha1_a = Utilities.computeSHA1(data.toByteArray());
-
-        data = new SerializedData();
-        data.writeRaw(authKey, 32 + x, 16);
-        data.writeRaw(messageKey);
-        data.writeRaw(authKey, 48 + x, 16);
-        byte[] sha1_b = Utilities.computeSHA1(data.toByteArray());
-
-        data = new SerializedData();
-        data.writeRaw(authKey, 64 + x, 32);
-        data.writeRaw(messageKey);
-        byte[] sha1_c = Utilities.computeSHA1(data.toByteArray());
-
-        data = new SerializedData();
-        data.writeRaw(messageKey);
-        data.writeRaw(authKey, 96 + x, 32);
-        byte[] sha1_d = Utilities.computeSHA1(data.toByteArray());
-
-        SerializedData aesKey = new SerializedData();
-        aesKey.writeRaw(sha1_a, 0, 8);
-        aesKey.writeRaw(sha1_b, 8, 12);
-        aesKey.writeRaw(sha1_c, 4, 12);
-        keyData.aesKey = aesKey.toByteArray();
-
-        SerializedData aesIv = new SerializedData();
-        aesIv.writeRaw(sha1_a, 8, 12);
-        aesIv.writeRaw(sha1_b, 0, 8);
-        aesIv.writeRaw(sha1_c, 16, 4);
-        aesIv.writeRaw(sha1_d, 0, 8);
-        keyData.aesIv = aesIv.toByteArray();
-
-        return keyData;
+        return MessageKeyData.generateMessageKeyData(authKey, messageKey, incoming);
     }
 
     public static TLObject decompress(byte[] data, TLObject parentObject) {
@@ -223,6 +192,66 @@ public class Utilities {
         return null;
     }
 
+    private static final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private static final CRC32 crc32 = new CRC32();
+    private static final int maxCompressBufferSize = 64 * 1024;
+    private static byte[] compressBuffer = new byte[4096];
+
+    /**
+     * Gzips data for a TL_gzip_packed, reusing one Deflater. Returns null when the result would
+     * not be smaller than maxLength bytes. The output buffer is kept for the next call up to
+     * maxCompressBufferSize, bigger requests get one of their own.
+     */
+    public static synchronized byte[] compress(byte[] data, int maxLength) {
+        if (maxLength <= 18) {
+            return null;
+        }
+        byte[] output;
+        if (maxLength > maxCompressBufferSize) {
+            output = new byte[maxLength];
+        } else {
+            if (compressBuffer.length < maxLength) {
+                compressBuffer = new byte[maxLength];
+            }
+            output = compressBuffer;
+        }
+        output[0] = 0x1f;
+        output[1] = (byte)0x8b;
+        output[2] = 8;
+        for (int a = 3; a < 9; a++) {
+            output[a] = 0;
+        }
+        output[9] = (byte)0xff;
+        int length = 10;
+        int limit = maxLength - 8;
+
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (length >= limit) {
+                return null;
+            }
+            length += deflater.deflate(output, length, limit - length);
+        }
+
+        crc32.reset();
+        crc32.update(data);
+        int crc = (int)crc32.getValue();
+        for (int a = 0; a < 4; a++) {
+            output[length++] = (byte)(crc >>> (8 * a));
+        }
+        for (int a = 0; a < 4; a++) {
+            output[length++] = (byte)(data.length >>> (8 * a));
+        }
+        if (length >= maxLength) {
+            return null;
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(output, 0, result, 0, length);
+        return result;
+    }
+
     private static final String TAG = "Typefaces";
     private static final Hashtable<String, Typeface> cache = new Hashtable<String, Typeface>();
 
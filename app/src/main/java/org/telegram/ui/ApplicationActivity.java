@@ -31,6 +31,7 @@ import com.actionbarsherlock.app.ActionBar;
 import com.actionbarsherlock.app.SherlockFragmentActivity;
 import com.actionbarsherlock.internal.app.ActionBarImpl;
 
+import org.telegram.messenger.BuildVars;
 import org.telegram.messenger.ConnectionsManager;
 import org.telegram.messenger.MessagesController;
 import org.telegram.messenger.NotificationCenter;
@@ -319,7 +320,7 @@ public class ApplicationActivity extends SherlockFragmentActivity implements Not
     }
 
     private void checkForUpdates() {
-        if (ConnectionsManager.DEBUG_VERSION) {
+        if (BuildVars.DEBUG_VERSION) {
             UpdateManager.register(this, "your-hockeyapp-api-key-here");
         }
     }
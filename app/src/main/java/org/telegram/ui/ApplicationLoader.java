@@ -24,7 +24,7 @@ import com.google.android.gms.gcm.GoogleCloudMessaging;
 
 import org.telegram.PhoneFormat.PhoneFormat;
 import org.telegram.TL.TLRPC;
-import org.telegram.messenger.ConnectionsManager;
+import org.telegram.messenger.BuildVars;
 import org.telegram.messenger.MessagesController;
 import org.telegram.messenger.MessagesStorage;
 import org.telegram.messenger.UserConfig;
@@ -116,7 +116,7 @@ public class ApplicationLoader extends Application {
         PhoneFormat format = PhoneFormat.Instance;
 
         lastPauseTime = System.currentTimeMillis() - 5000;
-        if (ConnectionsManager.DEBUG_VERSION) {
+        if (BuildVars.DEBUG_VERSION) {
             Log.e("tmessages", "start application with time " + lastPauseTime);
         }
     }
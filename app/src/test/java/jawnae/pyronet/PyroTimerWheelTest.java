@@ -0,0 +1,116 @@
+package jawnae.pyronet;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PyroTimerWheelTest {
+    private static final class Task implements Runnable {
+        final long deadline;
+        int runs;
+
+        Task(long deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            runs++;
+        }
+    }
+
+    private static void expire(PyroTimerWheel wheel, long now) {
+        List<Runnable> expired = new ArrayList<Runnable>();
+        wheel.expire(now, expired);
+        for (Runnable task : expired) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void expire_onlyDueTimeouts() {
+        PyroTimerWheel wheel = new PyroTimerWheel(10, 8);
+        Task early = new Task(1005);
+        Task late = new Task(1050);
+        wheel.schedule(early, early.deadline);
+        wheel.schedule(late, late.deadline);
+        assertEquals(1005, wheel.nextDeadline());
+
+        expire(wheel, 1004);
+        assertEquals(0, early.runs);
+        expire(wheel, 1005);
+        assertEquals(1, early.runs);
+        assertEquals(0, late.runs);
+        assertEquals(1050, wheel.nextDeadline());
+
+        expire(wheel, 1060);
+        assertEquals(1, early.runs);
+        assertEquals(1, late.runs);
+        assertEquals(Long.MAX_VALUE, wheel.nextDeadline());
+    }
+
+    @Test
+    public void expire_laterRound() {
+        PyroTimerWheel wheel = new PyroTimerWheel(10, 8);
+        expire(wheel, 1000);
+        // lands in the slot of tick 100 again, eight ticks later
+        Task task = new Task(1085);
+        wheel.schedule(task, task.deadline);
+        expire(wheel, 1005);
+        assertEquals(0, task.runs);
+        assertTrue(wheel.nextDeadline() <= task.deadline);
+        expire(wheel, 1084);
+        assertEquals(0, task.runs);
+        expire(wheel, 1085);
+        assertEquals(1, task.runs);
+    }
+
+    @Test
+    public void cancel() {
+        PyroTimerWheel wheel = new PyroTimerWheel(10, 8);
+        PyroTimerWheel.Timeout timeout = wheel.schedule(new Task(1020), 1020);
+        Task other = new Task(1040);
+        wheel.schedule(other, other.deadline);
+        timeout.cancel();
+        assertTrue(timeout.isCancelled());
+        expire(wheel, 1030);
+        assertEquals(1040, wheel.nextDeadline());
+        expire(wheel, 1040);
+        assertEquals(1, other.runs);
+    }
+
+    @Test
+    public void expire_matchesDeadlines() {
+        Random random = new Random(11);
+        for (int slotCount : new int[] {1, 8, 64, 256}) {
+            PyroTimerWheel wheel = new PyroTimerWheel(10, slotCount);
+            ArrayList<Task> tasks = new ArrayList<Task>();
+            long now = 1000;
+            for (int step = 0; step < 2000; step++) {
+                if (random.nextBoolean()) {
+                    Task task = new Task(now + random.nextInt(random.nextBoolean() ? 100 : 20000));
+                    wheel.schedule(task, task.deadline);
+                    tasks.add(task);
+                    continue;
+                }
+                long next = Long.MAX_VALUE;
+                for (Task task : tasks) {
+                    if (task.runs == 0 && task.deadline < next) {
+                        next = task.deadline;
+                    }
+                }
+                assertTrue(wheel.nextDeadline() <= next);
+
+                now += random.nextInt(4) == 0 ? random.nextInt(20000) : random.nextInt(50);
+                expire(wheel, now);
+                for (Task task : tasks) {
+                    assertEquals(task.deadline <= now ? 1 : 0, task.runs);
+                }
+            }
+        }
+    }
+}
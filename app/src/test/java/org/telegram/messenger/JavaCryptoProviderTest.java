@@ -0,0 +1,117 @@
+package org.telegram.messenger;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class JavaCryptoProviderTest {
+    private final CryptoProvider provider = new JavaCryptoProvider();
+
+    private static byte[] range(int from, int count) {
+        byte[] result = new byte[count];
+        for (int a = 0; a < count; a++) {
+            result[a] = (byte)(from + a);
+        }
+        return result;
+    }
+
+    private static byte[] hex(String value) {
+        byte[] result = new byte[value.length() / 2];
+        for (int a = 0; a < result.length; a++) {
+            result[a] = (byte)Integer.parseInt(value.substring(a * 2, a * 2 + 2), 16);
+        }
+        return result;
+    }
+
+    @Test
+    public void aesIge_knownVector() {
+        byte[] data = range(0, 64);
+        provider.aesIge(data, 0, data.length, range(0, 32), range(32, 32), true, false);
+        assertArrayEquals(hex("42e66e1a756cccf5b27acc47523ad074ee39bf54e3db37bbdf415df6b400fca9"
+                + "77f708327c9e9341cc3dc8efd31e76463daa65b1f0d0252f790d77f1824a662c"), data);
+
+        provider.aesIge(data, 0, data.length, range(0, 32), range(32, 32), false, false);
+        assertArrayEquals(range(0, 64), data);
+    }
+
+    @Test
+    public void aesIge_roundTrip() {
+        Random random = new Random(3);
+        for (int length = 16; length <= 16 * 600; length += 16 * 37) {
+            byte[] key = new byte[32];
+            byte[] iv = new byte[32];
+            byte[] plain = new byte[length + 7];
+            random.nextBytes(key);
+            random.nextBytes(iv);
+            random.nextBytes(plain);
+
+            byte[] data = plain.clone();
+            provider.aesIge(data, 7, length, key, iv.clone(), true, false);
+            assertFalse(Arrays.equals(plain, data));
+            assertArrayEquals(Arrays.copyOf(plain, 7), Arrays.copyOf(data, 7));
+            provider.aesIge(data, 7, length, key, iv.clone(), false, false);
+            assertArrayEquals(plain, data);
+        }
+    }
+
+    @Test
+    public void aesIge_changeIvContinuesChain() {
+        byte[] key = range(5, 32);
+        byte[] whole = range(0, 96);
+        provider.aesIge(whole, 0, whole.length, key, range(40, 32), true, false);
+
+        byte[] parts = range(0, 96);
+        byte[] iv = range(40, 32);
+        provider.aesIge(parts, 0, 32, key, iv, true, true);
+        provider.aesIge(parts, 32, 64, key, iv, true, true);
+        assertArrayEquals(whole, parts);
+    }
+
+    @Test
+    public void aesIge_directBufferMatchesArray() {
+        Random random = new Random(9);
+        byte[] key = new byte[32];
+        byte[] iv = new byte[32];
+        // longer than one chunk of the direct buffer path
+        byte[] plain = new byte[4096 * 2 + 48];
+        random.nextBytes(key);
+        random.nextBytes(iv);
+        random.nextBytes(plain);
+
+        byte[] array = plain.clone();
+        byte[] arrayIv = iv.clone();
+        provider.aesIge(array, 16, array.length - 32, key, arrayIv, true, true);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(plain.length);
+        direct.put(plain);
+        direct.position(16);
+        direct.limit(plain.length - 16);
+        byte[] directIv = iv.clone();
+        provider.aesIge(direct, key, directIv, true, true);
+        assertEquals(16, direct.position());
+        assertEquals(plain.length - 16, direct.limit());
+
+        byte[] result = new byte[plain.length];
+        direct.clear();
+        direct.get(result);
+        assertArrayEquals(array, result);
+        assertArrayEquals(arrayIv, directIv);
+
+        direct.position(16);
+        direct.limit(plain.length - 16);
+        provider.aesIge(direct, key, iv.clone(), false, false);
+        direct.clear();
+        direct.get(result);
+        assertArrayEquals(plain, result);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aesIge_rejectsPartialBlock() {
+        byte[] data = new byte[40];
+        provider.aesIge(data, 0, data.length, new byte[32], new byte[32], false, false);
+    }
+}
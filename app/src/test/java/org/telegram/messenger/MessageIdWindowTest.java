@@ -0,0 +1,83 @@
+package org.telegram.messenger;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MessageIdWindowTest {
+    @Test
+    public void add_rejectsDuplicates() {
+        MessageIdWindow window = new MessageIdWindow(4);
+        assertTrue(window.add(100));
+        assertFalse(window.add(100));
+        assertTrue(window.contains(100));
+        assertFalse(window.contains(104));
+        assertEquals(1, window.size());
+    }
+
+    @Test
+    public void add_forgetsOldestWhenFull() {
+        MessageIdWindow window = new MessageIdWindow(3);
+        window.add(1);
+        window.add(2);
+        window.add(3);
+        window.add(4);
+        assertFalse(window.contains(1));
+        assertTrue(window.contains(2));
+        assertTrue(window.contains(4));
+        assertEquals(3, window.size());
+        assertTrue(window.add(1));
+        assertFalse(window.contains(2));
+    }
+
+    @Test
+    public void zeroId() {
+        MessageIdWindow window = new MessageIdWindow(2);
+        assertFalse(window.contains(0));
+        assertTrue(window.add(0));
+        assertTrue(window.contains(0));
+        window.add(5);
+        window.add(6);
+        assertFalse(window.contains(0));
+    }
+
+    @Test
+    public void clear() {
+        MessageIdWindow window = new MessageIdWindow(8);
+        window.add(0);
+        window.add(7);
+        window.clear();
+        assertEquals(0, window.size());
+        assertFalse(window.contains(0));
+        assertFalse(window.contains(7));
+        assertTrue(window.add(7));
+    }
+
+    @Test
+    public void matchesReference() {
+        Random random = new Random(5);
+        int capacity = 100;
+        MessageIdWindow window = new MessageIdWindow(capacity);
+        ArrayDeque<Long> order = new ArrayDeque<Long>();
+        HashSet<Long> ids = new HashSet<Long>();
+        for (int a = 0; a < 100000; a++) {
+            // colliding ids close together, like message ids of one session
+            long messageId = 0x5230000000000000L + (random.nextInt(400) << 2);
+            boolean added = ids.add(messageId);
+            assertEquals(added, window.add(messageId));
+            if (added) {
+                order.addLast(messageId);
+                if (order.size() > capacity) {
+                    ids.remove(order.removeFirst());
+                }
+            }
+            long probe = 0x5230000000000000L + (random.nextInt(400) << 2);
+            assertEquals(ids.contains(probe), window.contains(probe));
+        }
+        assertEquals(ids.size(), window.size());
+    }
+}
@@ -0,0 +1,87 @@
+package org.telegram.messenger;
+
+import org.junit.Test;
+
+import java.security.MessageDigest;
+
+import static org.junit.Assert.*;
+
+public class MessageKeyDeriverTest {
+    private static byte[] authKey() {
+        byte[] authKey = new byte[256];
+        for (int a = 0; a < authKey.length; a++) {
+            authKey[a] = (byte)(a * 7 + 3);
+        }
+        return authKey;
+    }
+
+    private static byte[] messageKey() {
+        byte[] messageKey = new byte[16];
+        for (int a = 0; a < messageKey.length; a++) {
+            messageKey[a] = (byte)(100 + a);
+        }
+        return messageKey;
+    }
+
+    private static byte[] hex(String value) {
+        byte[] result = new byte[value.length() / 2];
+        for (int a = 0; a < result.length; a++) {
+            result[a] = (byte)Integer.parseInt(value.substring(a * 2, a * 2 + 2), 16);
+        }
+        return result;
+    }
+
+    @Test
+    public void derive_outgoing() {
+        MessageKeyData keyData = new MessageKeyData();
+        new MessageKeyDeriver(authKey()).derive(messageKey(), false, keyData);
+        assertArrayEquals(hex("bbc79e6e251c4a2295432270b205c57d5ce84f0904f77fa6032d10e2154ff91b"), keyData.aesKey);
+        assertArrayEquals(hex("d924a4851461e3173592dc51a1bef8c7dacdb5de8e95838c7d01acec66f426ad"), keyData.aesIv);
+    }
+
+    @Test
+    public void derive_incoming() {
+        MessageKeyData keyData = new MessageKeyData();
+        new MessageKeyDeriver(authKey()).derive(messageKey(), true, keyData);
+        assertArrayEquals(hex("7ccb1d7353aa531c6effe991c54023cd7fee0af0ecfd91ec0ed052808e1829f6"), keyData.aesKey);
+        assertArrayEquals(hex("b4e4c8fb352282e1b29f246b2fc5b0cb12afce3e458be4ff8f64a5561c8e13c1"), keyData.aesIv);
+    }
+
+    @Test
+    public void derive_reusesKeyData() {
+        MessageKeyDeriver deriver = new MessageKeyDeriver(authKey());
+        MessageKeyData keyData = new MessageKeyData();
+        deriver.derive(messageKey(), false, keyData);
+        byte[] aesKey = keyData.aesKey;
+        byte[] aesIv = keyData.aesIv;
+
+        byte[] withOffset = new byte[20];
+        System.arraycopy(messageKey(), 0, withOffset, 4, 16);
+        deriver.derive(withOffset, 4, true, keyData);
+        assertSame(aesKey, keyData.aesKey);
+        assertSame(aesIv, keyData.aesIv);
+
+        MessageKeyData expected = new MessageKeyData();
+        deriver.derive(messageKey(), true, expected);
+        assertArrayEquals(expected.aesKey, keyData.aesKey);
+        assertArrayEquals(expected.aesIv, keyData.aesIv);
+    }
+
+    @Test
+    public void computeSHA1_ofRange() throws Exception {
+        byte[] data = authKey();
+        byte[] out = new byte[24];
+        MessageKeyDeriver.computeSHA1(data, 10, 100, out);
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        sha1.update(data, 10, 100);
+        byte[] expected = sha1.digest();
+        for (int a = 0; a < 20; a++) {
+            assertEquals(expected[a], out[a]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsShortKey() {
+        new MessageKeyDeriver(new byte[64]);
+    }
+}
@@ -0,0 +1,84 @@
+package org.telegram.messenger;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PQFactorizerTest {
+    private static final BigInteger TWO_64 = BigInteger.ONE.shiftLeft(64);
+
+    private static void assertSplits(long pq) {
+        long divisor = PQFactorizer.factorize(pq);
+        assertTrue("no divisor of " + pq, divisor > 1 && divisor < pq);
+        assertEquals(0, pq % divisor);
+        BigInteger p = BigInteger.valueOf(divisor);
+        BigInteger q = BigInteger.valueOf(pq / divisor);
+        assertEquals(BigInteger.valueOf(pq), p.multiply(q));
+    }
+
+    @Test
+    public void factorize_knownPq() {
+        // the pq of the handshake example in the MTProto documentation
+        long pq = 0x17ED48941A08F981L;
+        long divisor = PQFactorizer.factorize(pq);
+        long p = Math.min(divisor, pq / divisor);
+        assertEquals(1229739323L, p);
+        assertEquals(1402015859L, pq / p);
+    }
+
+    @Test
+    public void factorize_matchesBigInteger() {
+        Random random = new Random(42);
+        for (int a = 0; a < 200; a++) {
+            BigInteger p = BigInteger.probablePrime(31, random);
+            BigInteger q = BigInteger.probablePrime(32, random);
+            long pq = p.multiply(q).longValue();
+            long divisor = PQFactorizer.factorize(pq);
+            BigInteger found = BigInteger.valueOf(divisor);
+            assertTrue(found.equals(p) || found.equals(q));
+        }
+    }
+
+    @Test
+    public void factorize_closeToLongMax() {
+        Random random = new Random(7);
+        for (int a = 0; a < 50; a++) {
+            BigInteger p = BigInteger.probablePrime(32, random);
+            BigInteger q = BigInteger.valueOf(Long.MAX_VALUE).divide(p).nextProbablePrime();
+            while (p.multiply(q).bitLength() > 63) {
+                q = q.subtract(BigInteger.valueOf(2));
+                while (!q.isProbablePrime(40)) {
+                    q = q.subtract(BigInteger.valueOf(2));
+                }
+            }
+            assertSplits(p.multiply(q).longValue());
+        }
+    }
+
+    @Test
+    public void factorize_trivialInput() {
+        assertEquals(0, PQFactorizer.factorize(3));
+        assertEquals(2, PQFactorizer.factorize(2L * 1000003));
+        assertEquals(0, PQFactorizer.factorize(1000003));
+    }
+
+    @Test
+    public void montgomeryMul_matchesBigInteger() {
+        Random random = new Random(1);
+        for (int a = 0; a < 1000; a++) {
+            long n = (random.nextLong() >>> 1) | 1;
+            if (n < 3) {
+                continue;
+            }
+            BigInteger bigN = BigInteger.valueOf(n);
+            long nPrime = bigN.modInverse(TWO_64).negate().mod(TWO_64).longValue();
+            long x = (random.nextLong() >>> 1) % n;
+            long y = (random.nextLong() >>> 1) % n;
+            BigInteger expected = BigInteger.valueOf(x).multiply(BigInteger.valueOf(y)).multiply(TWO_64.modInverse(bigN)).mod(bigN);
+            assertEquals(expected.longValue(), PQFactorizer.montgomeryMul(x, y, n, nPrime));
+        }
+    }
+}
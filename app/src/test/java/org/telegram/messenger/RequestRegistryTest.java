@@ -0,0 +1,154 @@
+package org.telegram.messenger;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class RequestRegistryTest {
+    private final RequestRegistry registry = new RequestRegistry();
+    private long nextToken = 1;
+
+    private RPCRequest request(int priority, long enqueueTime) {
+        RPCRequest request = new RPCRequest();
+        request.token = nextToken++;
+        request.flags = RPCRequest.RPCRequestClassGeneric;
+        request.requiresCompletion = true;
+        request.priority = priority;
+        request.enqueueTime = enqueueTime;
+        return request;
+    }
+
+    private RPCRequest running() {
+        RPCRequest request = request(RPCRequest.RPCRequestPriorityNormal, 0);
+        request.runningMessageId = nextToken * 4;
+        registry.startRunning(request);
+        return request;
+    }
+
+    private ArrayList<RPCRequest> takeDue(int currentTime) {
+        ArrayList<RPCRequest> due = new ArrayList<RPCRequest>();
+        registry.takeDue(currentTime, due);
+        return due;
+    }
+
+    @Test
+    public void takeDue_inCheckTimeOrder() {
+        RPCRequest first = running();
+        RPCRequest second = running();
+        RPCRequest third = running();
+        takeDue(1000);
+        registry.scheduleCheck(third, 1010);
+        registry.scheduleCheck(first, 1002);
+        registry.scheduleCheck(second, 1005);
+
+        assertTrue(takeDue(1001).isEmpty());
+        ArrayList<RPCRequest> due = takeDue(1002);
+        assertEquals(1, due.size());
+        assertSame(first, due.get(0));
+        due = takeDue(1009);
+        assertEquals(1, due.size());
+        assertSame(second, due.get(0));
+        due = takeDue(1010);
+        assertEquals(1, due.size());
+        assertSame(third, due.get(0));
+        assertTrue(takeDue(1100).isEmpty());
+    }
+
+    @Test
+    public void scheduleCheck_replacesEarlierCheck() {
+        RPCRequest request = running();
+        takeDue(1000);
+        registry.scheduleCheck(request, 1003);
+        registry.scheduleCheck(request, 1008);
+        assertTrue(takeDue(1005).isEmpty());
+        assertEquals(1, takeDue(1008).size());
+    }
+
+    @Test
+    public void scheduleCheck_laterRoundOfWheel() {
+        RPCRequest request = running();
+        takeDue(1000);
+        // same bucket as 1004, one round of the 64 second wheel later
+        registry.scheduleCheck(request, 1068);
+        assertTrue(takeDue(1004).isEmpty());
+        assertTrue(takeDue(1067).isEmpty());
+        assertEquals(1, takeDue(1068).size());
+    }
+
+    @Test
+    public void takeDue_skipsFinishedRequests() {
+        RPCRequest request = running();
+        takeDue(1000);
+        registry.scheduleCheck(request, 1002);
+        registry.removeRunning(request.token);
+        assertTrue(takeDue(1002).isEmpty());
+    }
+
+    @Test
+    public void setRunningMessageId_zeroIsDueNow() {
+        RPCRequest request = running();
+        takeDue(1000);
+        registry.scheduleCheck(request, 1030);
+        registry.setRunningMessageId(request, 0);
+        ArrayList<RPCRequest> due = takeDue(1001);
+        assertEquals(1, due.size());
+        assertSame(request, due.get(0));
+        assertTrue(takeDue(1030).isEmpty());
+    }
+
+    @Test
+    public void takeDue_clockGoingBackReturnsAll() {
+        RPCRequest first = running();
+        RPCRequest second = running();
+        takeDue(1000);
+        registry.scheduleCheck(first, 1010);
+        registry.scheduleCheck(second, 1020);
+        assertEquals(2, takeDue(900).size());
+    }
+
+    @Test
+    public void queued_lanesByWeight() {
+        long now = 100000;
+        for (int priority = RPCRequest.RPCRequestPriorityCount - 1; priority >= 0; priority--) {
+            for (int a = 0; a < 16; a++) {
+                registry.enqueue(request(priority, now));
+            }
+        }
+        StringBuilder order = new StringBuilder();
+        for (RPCRequest request : registry.queued(RPCRequest.RPCRequestClassGeneric, now)) {
+            order.append(request.priority);
+        }
+        // 8, 4, 2 and 1 per round while a lane has requests left
+        assertEquals("000000001111223" + "000000001111223" + "1111223" + "1111223"
+                + "223" + "223" + "223" + "223" + "33333333", order.toString());
+    }
+
+    @Test
+    public void queued_agedHeadMovesUp() {
+        long now = 100000;
+        RPCRequest interactive = request(RPCRequest.RPCRequestPriorityInteractive, now);
+        RPCRequest prefetch = request(RPCRequest.RPCRequestPriorityPrefetch, now - 3 * RPCRequest.priorityAgingTime);
+        RPCRequest background = request(RPCRequest.RPCRequestPriorityBackground, now);
+        registry.enqueue(interactive);
+        registry.enqueue(background);
+        registry.enqueue(prefetch);
+
+        ArrayList<RPCRequest> order = new ArrayList<RPCRequest>();
+        for (RPCRequest request : registry.queued(RPCRequest.RPCRequestClassGeneric, now)) {
+            order.add(request);
+        }
+        assertSame(prefetch, order.get(0));
+        assertSame(interactive, order.get(1));
+        assertSame(background, order.get(2));
+    }
+
+    @Test
+    public void removeQueued_fromLane() {
+        RPCRequest request = request(RPCRequest.RPCRequestPriorityBackground, 0);
+        registry.enqueue(request);
+        assertSame(request, registry.removeQueued(request.token));
+        assertFalse(registry.queued(RPCRequest.RPCRequestClassGeneric, 0).iterator().hasNext());
+    }
+}
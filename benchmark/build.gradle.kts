@@ -0,0 +1,102 @@
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+// The protocol classes are compiled straight from the app sources, only android.util.Log
+// is replaced by the JVM shim in src/main/java.
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include(
+                "android/util/Log.java",
+                "org/telegram/TL/**",
+                "org/telegram/messenger/BuildVars.java",
+                "org/telegram/messenger/CryptoProvider.java",
+                "org/telegram/messenger/JavaCryptoProvider.java",
+                "org/telegram/messenger/MessageFrames.java",
+                "org/telegram/messenger/MessageKeyData.java",
+                "org/telegram/messenger/MessageKeyDeriver.java",
+                "org/telegram/messenger/PQFactorizer.java",
+                "org/telegram/messenger/SerializedData.java"
+            )
+        }
+    }
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmhCore)
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+}
+
+// Rewrites the binary payloads in src/jmh/resources/fixtures. Only needed when TLRPC changes.
+tasks.register<JavaExec>("generateFixtures") {
+    group = "benchmark"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.telegram.benchmark.Fixtures")
+    args(file("src/jmh/resources/fixtures").absolutePath)
+}
+
+// Regression gate: compares the last jmh run against the results checked in as baseline.json.
+// The baseline is recorded on the reference machine with updateBenchmarkBaseline after a jmh
+// run; a score worse than the baseline by more than -PbenchmarkTolerance (default 15%) fails.
+val jmhResults = layout.buildDirectory.file("results/jmh/results.json")
+val jmhBaseline = layout.projectDirectory.file("baseline.json")
+
+fun readJmhScores(file: File): Map<String, Pair<String, Double>> {
+    @Suppress("UNCHECKED_CAST")
+    val runs = groovy.json.JsonSlurper().parse(file) as List<Map<String, Any?>>
+    return runs.associate { run ->
+        val params = (run["params"] as Map<*, *>?)?.entries?.joinToString(",", "(", ")") { "${it.key}=${it.value}" } ?: ""
+        val metric = run["primaryMetric"] as Map<*, *>
+        "${run["benchmark"]}$params" to (run["mode"] as String to (metric["score"] as Number).toDouble())
+    }
+}
+
+tasks.register("checkBenchmarkBaseline") {
+    group = "verification"
+    description = "Fails when the last jmh run regressed against benchmark/baseline.json."
+    mustRunAfter("jmh")
+    val tolerance = (findProperty("benchmarkTolerance") as String?)?.toDouble() ?: 0.15
+    val resultsFile = jmhResults.get().asFile
+    val baselineFile = jmhBaseline.asFile
+    inputs.file(resultsFile)
+    inputs.property("tolerance", tolerance)
+    doLast {
+        if (!baselineFile.exists()) {
+            throw GradleException("No benchmark baseline, record one with :benchmark:updateBenchmarkBaseline")
+        }
+        val baseline = readJmhScores(baselineFile)
+        val results = readJmhScores(resultsFile)
+        val regressions = ArrayList<String>()
+        for ((name, current) in results) {
+            val (mode, base) = baseline[name] ?: continue
+            // throughput is better when higher, every other jmh mode reports time
+            val change = if (mode == "thrpt") (base - current.second) / base else (current.second - base) / base
+            if (change > tolerance) {
+                regressions.add(String.format("%s: %.3f -> %.3f (%+.1f%%)", name, base, current.second, change * 100))
+            }
+        }
+        if (regressions.isNotEmpty()) {
+            throw GradleException("Benchmarks regressed over ${(tolerance * 100).toInt()}%:\n" + regressions.joinToString("\n"))
+        }
+    }
+}
+
+tasks.register<Copy>("updateBenchmarkBaseline") {
+    group = "benchmark"
+    description = "Records the last jmh run as benchmark/baseline.json."
+    from(jmhResults)
+    into(layout.projectDirectory)
+    rename { "baseline.json" }
+}
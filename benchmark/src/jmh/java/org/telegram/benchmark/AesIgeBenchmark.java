@@ -0,0 +1,71 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.telegram.messenger.CryptoProvider;
+import org.telegram.messenger.JavaCryptoProvider;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In place AES-256-IGE over a small packet, a large response and an upload chunk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AesIgeBenchmark {
+    @Param({"128", "16384", "32768"})
+    public int size;
+
+    private CryptoProvider cryptoProvider = new JavaCryptoProvider();
+    private byte[] key = new byte[32];
+    private byte[] iv = new byte[32];
+    private byte[] data;
+    private ByteBuffer direct;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        random.nextBytes(key);
+        random.nextBytes(iv);
+        data = new byte[size];
+        random.nextBytes(data);
+        direct = ByteBuffer.allocateDirect(size);
+        direct.put(data);
+        direct.flip();
+    }
+
+    @Benchmark
+    public byte[] encryptArray() {
+        cryptoProvider.aesIge(data, 0, data.length, key, iv, true, false);
+        return data;
+    }
+
+    @Benchmark
+    public byte[] decryptArray() {
+        cryptoProvider.aesIge(data, 0, data.length, key, iv, false, false);
+        return data;
+    }
+
+    @Benchmark
+    public ByteBuffer encryptDirect() {
+        cryptoProvider.aesIge(direct, key, iv, true, false);
+        return direct;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.telegram.TL.TLObject;
+import org.telegram.TL.TLRPC;
+import org.telegram.messenger.CryptoProvider;
+import org.telegram.messenger.JavaCryptoProvider;
+import org.telegram.messenger.MessageKeyData;
+import org.telegram.messenger.MessageFrames;
+import org.telegram.messenger.MessageKeyDeriver;
+import org.telegram.messenger.SerializedData;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows ConnectionsManager.createConnectionData: the queued messages are wrapped into a
+ * container and serialized into a pooled frame from MessageFrames, which then derives the message
+ * key and encrypts the frame in place with JavaCryptoProvider. Only the choice of message id and
+ * salt, which needs the Android runtime, is replaced by constants. The frame goes back to the pool
+ * like TcpConnection does once it is written.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConnectionDataBenchmark {
+    @Param({"1", "8", "32"})
+    public int messagesCount;
+
+    private ArrayList<TLRPC.TL_protoMessage> messages;
+    private byte[] authKey;
+    private byte[] authKeyId = {1, 2, 3, 4, 5, 6, 7, 8};
+    private long sessionId = 0x1234567890abcdefL;
+    private long serverSalt = 0x0fedcba987654321L;
+    private CryptoProvider cryptoProvider = new JavaCryptoProvider();
+    private MessageKeyDeriver keyDeriver;
+    private byte[] messageKeyFull = new byte[20];
+    private MessageKeyData keyData = new MessageKeyData();
+
+    @Setup
+    public void setup() {
+        authKey = Fixtures.load(Fixtures.AUTH_KEY);
+        keyDeriver = new MessageKeyDeriver(authKey);
+        messages = new ArrayList<TLRPC.TL_protoMessage>();
+        for (int a = 0; a < messagesCount; a++) {
+            TLRPC.TL_messages_getHistory request = new TLRPC.TL_messages_getHistory();
+            TLRPC.TL_inputPeerContact peer = new TLRPC.TL_inputPeerContact();
+            peer.user_id = 1000 + a;
+            request.peer = peer;
+            request.offset = 0;
+            request.max_id = 0;
+            request.limit = 50;
+
+            TLRPC.TL_protoMessage message = new TLRPC.TL_protoMessage();
+            message.msg_id = 0x5230000000000000L + a * 4;
+            message.seqno = a * 2 + 1;
+            message.body = request;
+            message.bytes = 24;
+            messages.add(message);
+        }
+    }
+
+    @Benchmark
+    public int createConnectionData() {
+        long messageId;
+        TLObject messageBody;
+        int messageSeqNo;
+        int messageBodySize;
+        if (messages.size() == 1) {
+            TLRPC.TL_protoMessage message = messages.get(0);
+            messageId = message.msg_id;
+            messageBody = message.body;
+            messageSeqNo = message.seqno;
+            messageBodySize = message.bytes;
+        } else {
+            TLRPC.TL_msg_container messageContainer = new TLRPC.TL_msg_container();
+            messageContainer.messages = new ArrayList<TLRPC.TL_protoMessage>(messages);
+            messageBodySize = 8;
+            for (TLRPC.TL_protoMessage message : messages) {
+                messageBodySize += 16 + message.bytes;
+            }
+            messageId = 0x5230000000001000L;
+            messageBody = messageContainer;
+            messageSeqNo = 2;
+        }
+
+        SerializedData frame = MessageFrames.obtainMessageFrame(authKeyId, serverSalt, sessionId, messageId, messageSeqNo, messageBodySize);
+        messageBody.serializeToStream(frame);
+        int quickAck = MessageFrames.encryptMessageFrame(frame, keyDeriver, cryptoProvider, messageKeyFull, keyData);
+
+        ByteBuffer buffer = frame.getBuffer();
+        int result = quickAck ^ buffer.get(buffer.limit() - 1);
+        MessageFrames.releaseFrameBuffer(buffer);
+        return result;
+    }
+}
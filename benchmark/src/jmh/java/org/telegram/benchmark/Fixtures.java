@@ -0,0 +1,218 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.benchmark;
+
+import org.telegram.TL.TLObject;
+import org.telegram.TL.TLRPC;
+import org.telegram.messenger.SerializedData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Loads the checked-in payloads used by the benchmarks. Running main() regenerates them
+ * from a fixed seed, the output is in the wire format the server sends.
+ */
+public class Fixtures {
+    public static final String MESSAGES = "messages_messages.bin";
+    public static final String DIFFERENCE = "updates_difference.bin";
+    public static final String DIALOGS = "messages_dialogs.bin";
+    public static final String AUTH_KEY = "auth_key.bin";
+
+    public static byte[] load(String name) {
+        InputStream is = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+        if (is == null) {
+            throw new IllegalStateException("missing fixture " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            is.close();
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("can't read fixture " + name, e);
+        }
+    }
+
+    private static final String[] WORDS = {"hello", "where", "are", "you", "meeting", "tomorrow", "ok", "sure",
+            "привет", "как", "дела", "see", "photo", "late", "call", "me", "when", "done", "thanks", "😀"};
+
+    private final Random random = new Random(2013);
+
+    private String text(int words) {
+        StringBuilder builder = new StringBuilder();
+        for (int a = 0; a < words; a++) {
+            if (a != 0) {
+                builder.append(' ');
+            }
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return builder.toString();
+    }
+
+    private TLRPC.FileLocation location() {
+        TLRPC.TL_fileLocation location = new TLRPC.TL_fileLocation();
+        location.dc_id = 1 + random.nextInt(5);
+        location.volume_id = random.nextLong();
+        location.local_id = random.nextInt(100000);
+        location.secret = random.nextLong();
+        return location;
+    }
+
+    private TLRPC.Message message(int id) {
+        TLRPC.TL_message message = new TLRPC.TL_message();
+        message.id = id;
+        message.from_id = 1000 + random.nextInt(200);
+        TLRPC.TL_peerUser peer = new TLRPC.TL_peerUser();
+        peer.user_id = 1000 + random.nextInt(200);
+        message.to_id = peer;
+        message.out = random.nextBoolean();
+        message.unread = random.nextInt(4) == 0;
+        message.date = 1380000000 + id * 37;
+        message.message = text(1 + random.nextInt(24));
+        message.media = new TLRPC.TL_messageMediaEmpty();
+        // attachPath is local only, the server never sends it
+        message.attachPath = null;
+        return message;
+    }
+
+    private TLRPC.Chat chat(int id) {
+        TLRPC.TL_chat chat = new TLRPC.TL_chat();
+        chat.id = id;
+        chat.title = text(1 + random.nextInt(4));
+        TLRPC.TL_chatPhoto photo = new TLRPC.TL_chatPhoto();
+        photo.photo_small = location();
+        photo.photo_big = location();
+        chat.photo = photo;
+        chat.participants_count = 2 + random.nextInt(100);
+        chat.date = 1380000000 + random.nextInt(1000000);
+        chat.left = false;
+        chat.version = random.nextInt(20);
+        return chat;
+    }
+
+    private TLRPC.User user(int id) {
+        TLRPC.TL_userContact user = new TLRPC.TL_userContact();
+        user.id = id;
+        user.first_name = text(1);
+        user.last_name = text(1);
+        user.access_hash = random.nextLong();
+        user.phone = String.valueOf(79000000000L + random.nextInt(1000000000));
+        TLRPC.TL_userProfilePhoto photo = new TLRPC.TL_userProfilePhoto();
+        photo.photo_id = random.nextLong();
+        photo.photo_small = location();
+        photo.photo_big = location();
+        user.photo = photo;
+        TLRPC.TL_userStatusOnline status = new TLRPC.TL_userStatusOnline();
+        status.expires = 1380000000 + random.nextInt(1000000);
+        user.status = status;
+        return user;
+    }
+
+    TLRPC.TL_messages_messages messages() {
+        TLRPC.TL_messages_messages res = new TLRPC.TL_messages_messages();
+        for (int a = 0; a < 100; a++) {
+            res.messages.add(message(50000 + a));
+        }
+        for (int a = 0; a < 5; a++) {
+            res.chats.add(chat(300 + a));
+        }
+        for (int a = 0; a < 30; a++) {
+            res.users.add(user(1000 + a));
+        }
+        return res;
+    }
+
+    TLRPC.TL_updates_difference difference() {
+        TLRPC.TL_updates_difference res = new TLRPC.TL_updates_difference();
+        for (int a = 0; a < 60; a++) {
+            res.new_messages.add(message(60000 + a));
+        }
+        for (int a = 0; a < 40; a++) {
+            TLRPC.TL_updateNewMessage update = new TLRPC.TL_updateNewMessage();
+            update.message = message(61000 + a);
+            update.pts = 7000 + a;
+            res.other_updates.add(update);
+        }
+        for (int a = 0; a < 5; a++) {
+            res.chats.add(chat(400 + a));
+        }
+        for (int a = 0; a < 40; a++) {
+            res.users.add(user(1100 + a));
+        }
+        TLRPC.TL_updates_state state = new TLRPC.TL_updates_state();
+        state.pts = 7040;
+        state.qts = 12;
+        state.date = 1380100000;
+        state.seq = 5000;
+        state.unread_count = 17;
+        res.state = state;
+        return res;
+    }
+
+    TLRPC.TL_messages_dialogs dialogs() {
+        TLRPC.TL_messages_dialogs res = new TLRPC.TL_messages_dialogs();
+        for (int a = 0; a < 100; a++) {
+            TLRPC.TL_dialog dialog = new TLRPC.TL_dialog();
+            TLRPC.TL_peerUser peer = new TLRPC.TL_peerUser();
+            peer.user_id = 1000 + a;
+            dialog.peer = peer;
+            dialog.top_message = 70000 + a;
+            dialog.unread_count = random.nextInt(5);
+            res.dialogs.add(dialog);
+            res.messages.add(message(70000 + a));
+        }
+        for (int a = 0; a < 10; a++) {
+            res.chats.add(chat(500 + a));
+        }
+        for (int a = 0; a < 100; a++) {
+            res.users.add(user(1000 + a));
+        }
+        return res;
+    }
+
+    byte[] authKey() {
+        byte[] key = new byte[256];
+        random.nextBytes(key);
+        return key;
+    }
+
+    private static void write(File dir, String name, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(dir, name));
+        out.write(data);
+        out.close();
+        System.out.println(name + ": " + data.length + " bytes");
+    }
+
+    private static byte[] serialize(TLObject object) {
+        SerializedData data = new SerializedData(16 * 1024);
+        object.serializeToStream(data);
+        return data.toByteArray();
+    }
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : "src/jmh/resources/fixtures");
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("can't create " + dir);
+        }
+        Fixtures fixtures = new Fixtures();
+        write(dir, MESSAGES, serialize(fixtures.messages()));
+        write(dir, DIFFERENCE, serialize(fixtures.difference()));
+        write(dir, DIALOGS, serialize(fixtures.dialogs()));
+        write(dir, AUTH_KEY, fixtures.authKey());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.benchmark;
+
+import org.telegram.messenger.MessageKeyData;
+import org.telegram.messenger.SerializedData;
+
+import java.security.MessageDigest;
+
+/**
+ * Copy of the message key derivation as it was before MessageKeyDeriver, a SerializedData and a
+ * new SHA-1 instance for every hash. Only kept as the baseline of MessageKeyBenchmark.
+ */
+final class LegacyMessageKeys {
+    private LegacyMessageKeys() {
+    }
+
+    private static byte[] computeSHA1(byte[] convertme) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            return md.digest(convertme);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    static MessageKeyData generateMessageKeyData(byte[] authKey, byte[] messageKey, boolean incoming) {
+        MessageKeyData keyData = new MessageKeyData();
+        if (authKey == null || authKey.length == 0) {
+            keyData.aesIv = null;
+            keyData.aesKey = null;
+            return keyData;
+        }
+
+        int x = incoming ? 8 : 0;
+
+        SerializedData data = new SerializedData();
+        data.writeRaw(messageKey);
+        data.writeRaw(authKey, x, 32);
+        byte[] sha1_a = computeSHA1(data.toByteArray());
+
+        data = new SerializedData();
+        data.writeRaw(authKey, 32 + x, 16);
+        data.writeRaw(messageKey);
+        data.writeRaw(authKey, 48 + x, 16);
+        byte[] sha1_b = computeSHA1(data.toByteArray());
+
+        data = new SerializedData();
+        data.writeRaw(authKey, 64 + x, 32);
+        data.writeRaw(messageKey);
+        byte[] sha1_c = computeSHA1(data.toByteArray());
+
+        data = new SerializedData();
+        data.writeRaw(messageKey);
+        data.writeRaw(authKey, 96 + x, 32);
+        byte[] sha1_d = computeSHA1(data.toByteArray());
+
+        SerializedData aesKey = new SerializedData();
+        aesKey.writeRaw(sha1_a, 0, 8);
+        aesKey.writeRaw(sha1_b, 8, 12);
+        aesKey.writeRaw(sha1_c, 4, 12);
+        keyData.aesKey = aesKey.toByteArray();
+
+        SerializedData aesIv = new SerializedData();
+        aesIv.writeRaw(sha1_a, 8, 12);
+        aesIv.writeRaw(sha1_b, 0, 8);
+        aesIv.writeRaw(sha1_c, 16, 4);
+        aesIv.writeRaw(sha1_d, 0, 8);
+        keyData.aesIv = aesIv.toByteArray();
+
+        return keyData;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.telegram.messenger.MessageKeyData;
+import org.telegram.messenger.MessageKeyDeriver;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key derivation done for every packet sent and received. outgoing and incoming run the old
+ * derivation kept in LegacyMessageKeys as the baseline for the deriver benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageKeyBenchmark {
+    private byte[] authKey;
+    private byte[] messageKey;
+    private MessageKeyDeriver deriver;
+    private MessageKeyData keyData = new MessageKeyData();
+
+    @Setup
+    public void setup() {
+        authKey = Fixtures.load(Fixtures.AUTH_KEY);
+        messageKey = new byte[16];
+        new Random(1).nextBytes(messageKey);
+        deriver = new MessageKeyDeriver(authKey);
+    }
+
+    @Benchmark
+    public MessageKeyData outgoing() {
+        return LegacyMessageKeys.generateMessageKeyData(authKey, messageKey, false);
+    }
+
+    @Benchmark
+    public MessageKeyData incoming() {
+        return LegacyMessageKeys.generateMessageKeyData(authKey, messageKey, true);
+    }
+
+    @Benchmark
+    public MessageKeyData deriverOutgoing() {
+        deriver.derive(messageKey, false, keyData);
+        return keyData;
+    }
+
+    @Benchmark
+    public MessageKeyData deriverIncoming() {
+        deriver.derive(messageKey, true, keyData);
+        return keyData;
+    }
+}
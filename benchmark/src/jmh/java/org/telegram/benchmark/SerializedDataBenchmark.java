@@ -0,0 +1,113 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.telegram.messenger.SerializedData;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerializedDataBenchmark {
+    private static final int COUNT = 256;
+
+    private SerializedData writer;
+    private byte[] primitives;
+    private byte[] strings;
+    private byte[] blob;
+
+    private static void writePrimitives(SerializedData data) {
+        for (int a = 0; a < COUNT; a++) {
+            data.writeInt32(a);
+            data.writeInt64(a * 31L);
+            data.writeBool((a & 1) == 0);
+        }
+    }
+
+    private static void writeStrings(SerializedData data) {
+        for (int a = 0; a < COUNT; a++) {
+            data.writeString(a % 3 == 0 ? "привет, как дела?" : "see you tomorrow at " + a);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        writer = new SerializedData(16 * 1024);
+
+        SerializedData data = new SerializedData();
+        writePrimitives(data);
+        primitives = data.toByteArray();
+
+        data = new SerializedData();
+        writeStrings(data);
+        strings = data.toByteArray();
+
+        blob = new byte[1024];
+        for (int a = 0; a < blob.length; a++) {
+            blob[a] = (byte)a;
+        }
+    }
+
+    @Benchmark
+    public byte[] writePrimitivesStream() {
+        SerializedData data = new SerializedData();
+        writePrimitives(data);
+        return data.toByteArray();
+    }
+
+    @Benchmark
+    public int writePrimitivesBuffer() {
+        writer.reset();
+        writePrimitives(writer);
+        return writer.length();
+    }
+
+    @Benchmark
+    public int writeStringsBuffer() {
+        writer.reset();
+        writeStrings(writer);
+        return writer.length();
+    }
+
+    @Benchmark
+    public int writeByteArrayBuffer() {
+        writer.reset();
+        for (int a = 0; a < 16; a++) {
+            writer.writeByteArray(blob);
+        }
+        return writer.length();
+    }
+
+    @Benchmark
+    public void readPrimitives(Blackhole bh) {
+        SerializedData data = new SerializedData(primitives);
+        for (int a = 0; a < COUNT; a++) {
+            bh.consume(data.readInt32());
+            bh.consume(data.readInt64());
+            bh.consume(data.readBool());
+        }
+    }
+
+    @Benchmark
+    public void readStrings(Blackhole bh) {
+        SerializedData data = new SerializedData(strings);
+        for (int a = 0; a < COUNT; a++) {
+            bh.consume(data.readString());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * This is the source code of Telegram for Android v. 1.2.3.
+ * It is licensed under GNU GPL v. 2 or later.
+ * You should have received a copy of the license in this archive (see LICENSE).
+ *
+ * Copyright Nikolai Kudashov, 2013.
+ */
+
+package org.telegram.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.telegram.TL.TLClassStore;
+import org.telegram.TL.TLObject;
+import org.telegram.messenger.SerializedData;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses and writes back the large responses the client gets while syncing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TLSerializationBenchmark {
+    @Param({Fixtures.MESSAGES, Fixtures.DIFFERENCE, Fixtures.DIALOGS})
+    public String fixture;
+
+    private byte[] payload;
+    private TLObject object;
+    private SerializedData writer;
+
+    private static TLObject parse(byte[] payload) {
+        SerializedData data = new SerializedData(payload);
+        return TLClassStore.Instance().TLdeserialize(data, data.readInt32());
+    }
+
+    @Setup
+    public void setup() {
+        payload = Fixtures.load(fixture);
+        object = parse(payload);
+        if (object == null) {
+            throw new IllegalStateException("can't parse " + fixture);
+        }
+        writer = new SerializedData(payload.length * 2);
+    }
+
+    @Benchmark
+    public TLObject deserialize() {
+        return parse(payload);
+    }
+
+    @Benchmark
+    public byte[] serializeStream() {
+        SerializedData data = new SerializedData();
+        object.serializeToStream(data);
+        return data.toByteArray();
+    }
+
+    @Benchmark
+    public int serializeBuffer() {
+        writer.reset();
+        object.serializeToStream(writer);
+        return writer.length();
+    }
+
+    @Benchmark
+    public int roundTrip() {
+        TLObject result = parse(payload);
+        writer.reset();
+        result.serializeToStream(writer);
+        return writer.length();
+    }
+}
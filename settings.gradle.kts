@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "Messenger"
 include(":app")
+include(":benchmark")